@@ -0,0 +1,208 @@
+package bench;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+import game2D.Animation;
+import game2D.AnimationDefinition;
+
+/**
+ * Compares the cost of playing many sprites' animations with Animation,
+ * which takes no locks, against a copy of the old Animation whose update()
+ * and getImage() were synchronized. Each tick updates every animation and
+ * reads its image three times, as Sprite.update() and drawing do. The tests
+ * are run on their own and with a second thread reading the images at the
+ * same time, as a render thread would. Run it with:
+ *
+ * <pre>
+ * java bench.AnimationBench [seconds per test] [sprites]
+ * </pre>
+ */
+public class AnimationBench {
+
+	private static long checksum;			// Keeps the work from being optimised away
+	private static volatile boolean reading;	// Keeps the reader thread going
+
+	/**
+	 * Runs each test for the given time, after a warm up, and prints the
+	 * time taken per sprite each tick.
+	 *
+	 * @param args The seconds to run each test for and the number of sprites
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		int sprites = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+		Image [] frames = new Image[6];
+		for (int i=0; i<frames.length; i++)
+			frames[i] = new BufferedImage(8 + i, 8, BufferedImage.TYPE_INT_ARGB);
+		AnimationDefinition def = new AnimationDefinition(frames, 100);
+
+		final Animation [] plain = new Animation[sprites];
+		final SynchronizedAnimation [] locked = new SynchronizedAnimation[sprites];
+		for (int i=0; i<sprites; i++)
+		{
+			plain[i] = new Animation(def);
+			plain[i].update(i * 7);
+			locked[i] = new SynchronizedAnimation(frames, 100);
+			locked[i].update(i * 7);
+		}
+
+		Test lockFree = new Test() {
+			long tick(long elapsed)
+			{
+				long sum = 0;
+				for (Animation a : plain)
+				{
+					a.update(elapsed);
+					sum += a.getImage().getWidth(null) + a.getImage().getHeight(null) + a.getImage().hashCode();
+				}
+				return sum;
+			}
+			long read()
+			{
+				long sum = 0;
+				for (Animation a : plain) sum += a.getImage().hashCode();
+				return sum;
+			}
+		};
+		Test synced = new Test() {
+			long tick(long elapsed)
+			{
+				long sum = 0;
+				for (SynchronizedAnimation a : locked)
+				{
+					a.update(elapsed);
+					sum += a.getImage().getWidth(null) + a.getImage().getHeight(null) + a.getImage().hashCode();
+				}
+				return sum;
+			}
+			long read()
+			{
+				long sum = 0;
+				for (SynchronizedAnimation a : locked) sum += a.getImage().hashCode();
+				return sum;
+			}
+		};
+
+		report("lock free", lockFree, sprites, seconds, false);
+		report("synchronized", synced, sprites, seconds, false);
+		report("lock free + reader", lockFree, sprites, seconds, true);
+		report("synchronized + reader", synced, sprites, seconds, true);
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	/**
+	 * One tick's worth of work over every sprite, and what a render thread
+	 * reads from them.
+	 */
+	private static abstract class Test {
+		abstract long tick(long elapsed);
+		abstract long read();
+	}
+
+	/**
+	 * Warms 'test' up, then runs it for 'seconds', with a reader thread if
+	 * asked for, and prints its rate.
+	 */
+	private static void report(String name, final Test test, int sprites, double seconds, boolean reader) throws InterruptedException
+	{
+		Thread t = null;
+		if (reader)
+		{
+			reading = true;
+			t = new Thread(new Runnable() {
+				public void run()
+				{
+					long sum = 0;
+					while (reading) sum += test.read();
+					synchronized (AnimationBench.class) { checksum += sum; }
+				}
+			}, "Reader");
+			t.setDaemon(true);
+			t.start();
+		}
+		time(test, Math.min(1, seconds / 2));
+		double rate = time(test, seconds);
+		if (t != null)
+		{
+			reading = false;
+			t.join();
+		}
+		System.out.printf("%-22s %10.2f ns/sprite %10.0f ticks/s%n", name, 1000000000 / (rate * sprites), rate);
+	}
+
+	/**
+	 * Runs ticks of 'test' for 'seconds'.
+	 *
+	 * @return The ticks done per second
+	 */
+	private static double time(Test test, double seconds)
+	{
+		long limit = (long)(seconds * 1000000000L);
+		long start = System.nanoTime();
+		long elapsed;
+		long count = 0;
+		long sum = 0;
+		do
+		{
+			sum += test.tick(16);
+			count++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < limit);
+		synchronized (AnimationBench.class) { checksum += sum; }
+		return count / (elapsed / 1000000000.0);
+	}
+
+	/**
+	 * The parts of the old Animation the game used each tick, with their
+	 * locking, as a baseline.
+	 */
+	private static class SynchronizedAnimation {
+		private Image [] images;
+		private long [] endTimes;
+		private long totalDuration;
+		private int currFrameIndex;
+		private long animTime;
+		private float animSpeed = 1.0f;
+		private boolean play = true;
+		private int stopFrame = -1;
+
+		SynchronizedAnimation(Image [] images, long duration)
+		{
+			this.images = images;
+			endTimes = new long[images.length];
+			for (int i=0; i<images.length; i++)
+				endTimes[i] = (i + 1) * duration;
+			totalDuration = images.length * duration;
+		}
+
+		synchronized void update(long elapsedTime)
+		{
+			if (!play) return;
+			elapsedTime = (long)(elapsedTime * animSpeed);
+			if (images.length > 1)
+			{
+				animTime += elapsedTime;
+				if (animTime >= totalDuration)
+				{
+					animTime = animTime % totalDuration;
+					currFrameIndex = 0;
+				}
+				while (animTime > endTimes[currFrameIndex])
+					currFrameIndex++;
+				if (currFrameIndex == stopFrame)
+				{
+					play = false;
+					stopFrame = -1;
+				}
+			}
+		}
+
+		synchronized Image getImage()
+		{
+			return images[currFrameIndex];
+		}
+	}
+}
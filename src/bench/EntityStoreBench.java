@@ -0,0 +1,114 @@
+package bench;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+import game2D.AnimationDefinition;
+import game2D.EntityStore;
+import game2D.Sprite;
+
+/**
+ * Measures how long one tick of moving and animating a large number of
+ * sprites takes when they share an EntityStore and are updated in bulk,
+ * against updating the same number of separate sprites one at a time.
+ * Every sprite has its own velocity and plays a shared animation. Run it
+ * with:
+ *
+ * <pre>
+ * java bench.EntityStoreBench [seconds per test] [sprites]
+ * </pre>
+ */
+public class EntityStoreBench {
+
+	private static double checksum;		// Keeps the work from being optimised away
+
+	/**
+	 * Runs each test for the given time, after a warm up, and prints the
+	 * time per tick against the 60 Hz frame budget.
+	 *
+	 * @param args The seconds to run each test for and the number of sprites
+	 */
+	public static void main(String[] args)
+	{
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+		Image [] frames = new Image[6];
+		for (int i=0; i<frames.length; i++)
+			frames[i] = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		AnimationDefinition def = new AnimationDefinition(frames, 100);
+
+		final EntityStore store = new EntityStore(count);
+		final Sprite [] handles = new Sprite[count];
+		final Sprite [] separate = new Sprite[count];
+		for (int i=0; i<count; i++)
+		{
+			handles[i] = new Sprite(store, def);
+			separate[i] = new Sprite(def);
+			float dx = ((i * 37) % 101 - 50) / 1000f;
+			float dy = ((i * 53) % 101 - 50) / 1000f;
+			handles[i].setVelocity(dx, dy);
+			separate[i].setVelocity(dx, dy);
+		}
+
+		Test bulk = new Test() {
+			void tick() { store.update(16); }
+			float sample() { return handles[handles.length / 2].getX(); }
+		};
+		Test integrate = new Test() {
+			void tick() { store.integrate(16); }
+			float sample() { return handles[handles.length / 2].getY(); }
+		};
+		Test oneByOne = new Test() {
+			void tick()
+			{
+				for (Sprite s : separate) s.update(16);
+			}
+			float sample() { return separate[separate.length / 2].getX(); }
+		};
+
+		report("store update", bulk, seconds);
+		report("store integrate", integrate, seconds);
+		report("separate sprites", oneByOne, seconds);
+		System.out.println("(" + count + " sprites, checksum " + checksum + ")");
+	}
+
+	/**
+	 * One tick of every sprite.
+	 */
+	private static abstract class Test {
+		abstract void tick();
+		abstract float sample();
+	}
+
+	/**
+	 * Warms 'test' up, then runs it for 'seconds' and prints its time per tick.
+	 */
+	private static void report(String name, Test test, double seconds)
+	{
+		time(test, Math.min(1, seconds / 2));
+		double ms = time(test, seconds);
+		System.out.printf("%-18s %8.3f ms/tick %6.1f%% of a 60 Hz frame%n", name, ms, ms * 100 / (1000 / 60.0));
+	}
+
+	/**
+	 * Runs ticks of 'test' for 'seconds'.
+	 *
+	 * @return The milliseconds taken per tick
+	 */
+	private static double time(Test test, double seconds)
+	{
+		long limit = (long)(seconds * 1000000000L);
+		long start = System.nanoTime();
+		long elapsed;
+		long ticks = 0;
+		do
+		{
+			test.tick();
+			ticks++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < limit);
+		checksum += test.sample();
+		return elapsed / 1000000.0 / ticks;
+	}
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import game2D.LevelGenerator;
+import game2D.StreamingTileMap;
+
+/**
+ * Measures how fast LevelGenerator turns out chunks: generating the tiles
+ * alone, working out the spawns alone, and streaming the level through a
+ * StreamingTileMap with the view scrolling across it as fast as it can.
+ * Run it with:
+ *
+ * <pre>
+ * java bench.LevelGeneratorBench [seconds per test] [seed]
+ * </pre>
+ */
+public class LevelGeneratorBench {
+
+	private static long checksum;	// Keeps the work from being optimised away
+
+	/**
+	 * Runs each test for the given time, after a warm up, and prints the
+	 * chunks per second.
+	 *
+	 * @param args The seconds to run each test for and the seed of the level
+	 */
+	public static void main(String[] args)
+	{
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		final LevelGenerator generator = new LevelGenerator(seed, null);
+
+		Test tiles = new Test() {
+			char [] into = new char[generator.getChunkWidth() * generator.getMapHeight()];
+			long run(long index)
+			{
+				generator.loadChunk((int)index, into);
+				return into[(int)(index % into.length)];
+			}
+		};
+		Test spawns = new Test() {
+			LevelGenerator.SpawnListener counter = new LevelGenerator.SpawnListener() {
+				public void coin(int x, int y) { checksum += x + y; }
+				public void enemy(int x, int y) { checksum -= x + y; }
+			};
+			long run(long index)
+			{
+				generator.spawns((int)index, counter);
+				return 0;
+			}
+		};
+		final StreamingTileMap map = new StreamingTileMap(new LevelGenerator(seed, null), 512);
+		Test streamed = new Test() {
+			int chunkPixels = map.getChunkWidth() * map.getTileWidth();
+			long run(long index)
+			{
+				// Move the view on a chunk, which loads the chunks coming into range
+				int x = (int)(index % (map.getMapWidth() / map.getChunkWidth() - 4)) * chunkPixels;
+				map.setView(x, 512);
+				return map.getTileChar(x / map.getTileWidth(), map.getMapHeight() - 1);
+			}
+		};
+
+		report("generate tiles", tiles, seconds);
+		report("generate spawns", spawns, seconds);
+		report("stream through map", streamed, seconds);
+		map.close();
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	/**
+	 * One chunk's worth of work.
+	 */
+	private static abstract class Test {
+		abstract long run(long index);
+	}
+
+	/**
+	 * Warms 'test' up, then runs it for 'seconds' and prints its rate.
+	 */
+	private static void report(String name, Test test, double seconds)
+	{
+		time(test, Math.min(1, seconds / 2));
+		double rate = time(test, seconds);
+		System.out.printf("%-20s %12.0f chunks/s %10.2f us/chunk%n", name, rate, 1000000 / rate);
+	}
+
+	/**
+	 * Runs 'test' on successive chunks for 'seconds'.
+	 *
+	 * @return The chunks done per second
+	 */
+	private static double time(Test test, double seconds)
+	{
+		long limit = (long)(seconds * 1000000000L);
+		long start = System.nanoTime();
+		long elapsed;
+		long count = 0;
+		do
+		{
+			for (int i=0; i<256; i++)
+				checksum += test.run(count++);
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < limit);
+		return count / (elapsed / 1000000000.0);
+	}
+}
@@ -1,40 +1,70 @@
 package game2D;
 
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.CropImageFilter;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
 import java.util.ArrayList;
 
-import javax.swing.ImageIcon;
-
 /**
-    The Animation class manages a series of images (frames) and
-    the amount of time to display each frame.
+    The Animation class plays a series of images (frames), showing
+    each for the amount of time given by its AnimationDefinition.
+    The definition can be shared by any number of animations, each
+    of which only holds how far through it has got, so every sprite
+    can have an Animation of its own.
+    
+    An Animation has a single writer: it should only be changed
+    from the game loop thread. Nothing is locked, and the current
+    image is published through a volatile field, so getImage() can
+    be called from any thread without blocking the game loop.
     
     @author David Cairns
 */
 public class Animation {
 
-    private ArrayList<AnimFrame> frames;	// The set of animation frames
+    private AnimationDefinition def;		// The frames and their end times
     private int currFrameIndex;				// Current frame animation is on
+    private volatile Image current;			// Image of the current frame, for readers on any thread
     private long animTime;					// Current animation time
-    private long totalDuration;				// Total animation time
     private float animSpeed = 1.0f;			// Animation speed, e.g. 2 will be twice as fast
     
     private boolean loop = true;			// True if the animation should continue looping
     private boolean looped = false;			// True if 1 animation loop has been completed
     private boolean play = true;			//	True if the animation should animate
     private int stopFrame = -1;				// A frame to stop on, if < 0 it is ignored
+    private ArrayList<Image[]> sheets = new ArrayList<Image[]>();	// Frames acquired from the asset cache
 
     /**
      * Creates a new, empty Animation.
      */
     public Animation() {
-        frames = new ArrayList<AnimFrame>();
-        totalDuration = 0;
-        looped = false;
+        this(AnimationDefinition.EMPTY);
+    }
+    
+    /**
+     * Creates a new Animation playing the frames of 'def'.
+     * 
+     * @param def	The frames to play, which may be shared with other animations
+     */
+    public Animation(AnimationDefinition def) {
+        this.def = def;
+        start();
+    }
+    
+    /**
+     * Gets the definition this animation plays.
+     * 
+     * @return The frames and their end times
+     */
+    public AnimationDefinition getDefinition() { return def; }
+    
+    /**
+     * Switches to playing 'def' from its first frame, clearing
+     * any pause. The speed and looping are kept.
+     * 
+     * @param def	The frames to play
+     */
+    public void setDefinition(AnimationDefinition def) {
+        this.def = def;
+        play = true;
+        stopFrame = -1;
         start();
     }
     
@@ -46,20 +76,20 @@ public class Animation {
      * @param duration	The time it should be displayed for
      * 
      */
-    public synchronized void addFrame(Image image, long duration)
+    public void addFrame(Image image, long duration)
     {
-        totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+        def = def.withFrame(image, duration);
+        current = def.getFrameImage(currFrameIndex);
     }
 
 
     /**
      *  Starts this animation over from the beginning.
      */
-    public synchronized void start() {
+    public void start() {
         animTime = 0;
-        currFrameIndex = 0;
         looped = false;
+        showFrame(0);
     }
 
     /**
@@ -68,15 +98,17 @@ public class Animation {
      * 
      * @param elapsedTime	Time that has elapsed since last call
      */
-    public synchronized void update(long elapsedTime) {
+    public void update(long elapsedTime) {
     	
     	// If we are paused, don't update the animation
     	if (!play) return; 
     	
     	elapsedTime = (long)(elapsedTime * animSpeed);
     	
-        if (frames.size() > 1) 
+        if (def.getFrameCount() > 1) 
         {
+            long totalDuration = def.getDuration();
+            int frame = currFrameIndex;
             animTime += elapsedTime;
 
             if (animTime >= totalDuration) 
@@ -84,7 +116,7 @@ public class Animation {
             	if (loop)
             	{
 	                animTime = animTime % totalDuration;
-	                currFrameIndex = 0;
+	                frame = 0;
             	}
             	else
             	{
@@ -93,9 +125,10 @@ public class Animation {
             	looped = true;
             }
 
-            while (animTime > getFrame(currFrameIndex).endTime) {
-                currFrameIndex++;
+            while (animTime > def.getEndTime(frame)) {
+                frame++;
             }
+            if (frame != currFrameIndex) showFrame(frame);
             
             // If we hit a stopFrame, pause the animation
             // It will be -1 if we should not stop at this point
@@ -114,25 +147,16 @@ public class Animation {
      * 
      * @return The current image that should be displayed
      */
-    public synchronized Image getImage() {
-        if (frames.size() == 0) {
-            return null;
-        }
-        else {
-            return getFrame(currFrameIndex).image;
-        }
+    public Image getImage() {
+        return current;
     }
-
+    
     /**
-     * Works out which frame to display, incorporating
-     * the offset.
-     * 
-     * @param i	The frame index to get
-     * 
-     * @return The animation frame corresponding to the index
+     * Moves to frame 'f' and publishes its image.
      */
-    private AnimFrame getFrame(int i) {
-        return (AnimFrame)frames.get(i);
+    private void showFrame(int f) {
+        currFrameIndex = f;
+        current = def.getFrameImage(f);
     }
 
     /**
@@ -144,11 +168,7 @@ public class Animation {
      * @return	A reference to the image at index 'i'
      */
     public Image getFrameImage(int i) {
-    	
-    	if (i < 0 || i >= frames.size()) return null;
-    	
-    	AnimFrame frame = frames.get(i);
-    	return frame.image;
+    	return def.getFrameImage(i);
     }
     
     /**
@@ -171,6 +191,10 @@ public class Animation {
     /**
      * Loads a complete animation from an animation sheet and adds each
      * frame in the sheet to the animation with the given frameDuration.
+     * The sheet is fully decoded before this returns, so every frame is
+     * ready to draw. The frames come from the shared AssetCache, so a sheet
+     * is only decoded once however many animations use it; call dispose()
+     * when the animation is finished with.
      * 
      * @param fileName	The path to the file to load the animations from
      * @param rows		How many rows there are in the sheet
@@ -179,8 +203,9 @@ public class Animation {
      */
     public void loadAnimationFromSheet(String fileName, int columns, int rows, int frameDuration)
     {
-    	Image sheet = new ImageIcon(fileName).getImage();
-    	Image[] images = getImagesFromSheet(sheet, columns, rows);
+    	Image[] images = AssetCache.getShared().acquireFrames(fileName, columns, rows);
+    	if (images == null) return;
+    	sheets.add(images);
     	
     	for (int i=0; i<images.length; i++)
     	{
@@ -191,58 +216,17 @@ public class Animation {
 
     
     /**
-     * Loads a set of images from a sprite sheet so that they can be added to an animation.
-     * Courtesy of Donald Robertson.
-     * 
-     * @param sheet
-     * @param rows
-     * @param columns
-     * @return
+     * Gives the frames loaded from sheets back to the asset cache. The
+     * animation keeps its frames, but they may be dropped from the cache
+     * once nothing else uses them.
      */
-    private Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
-
-        // basic method to achieve split of sprite sheet
-        // overloading could be used to achieve more complex things 
-    	// such as sheets where all images are not the same dimensions
-        // deliberately 'overcommented' for clarity when integrating with
-    	// main engine
-
-        // initialise image array to return
-        Image[] split = new Image[rows*columns];
-
-        // easiest way to count as going through sprite sheet as though it is a 2d array
-        int count = 0;
-
-        // initialise width & height of split up images
-        int width = sheet.getWidth(null)/columns;
-        int height = sheet.getHeight(null)/rows;
-
-        // for each column in each row
-        for(int i = 0; i < rows; i++) 
-        {
-            for(int j = 0; j < columns; j++) 
-            {
-            	// create an image filter
-            	// top left (x) = j*width, (y) = i*height
-            	// extract rectangular region of width and height from origin x,y
-            	ImageFilter cropper = new CropImageFilter(j*width,i*height, width, height);
-            	
-                // create image source based on original sprite sheet with filter applied
-                // results in image source for cropped image being generated
-                FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
-                
-                // create a new image using generated image source and store in appropriate array element
-                split[count] = Toolkit.getDefaultToolkit().createImage(cropped);
-                        
-                // increment count to prevent elements being overwritten
-                count++;
-            }
-        }
-
-        // return array
-        return split;
+    public void dispose()
+    {
+    	for (Image[] images : sheets)
+    		AssetCache.getShared().release(images);
+    	sheets.clear();
     }
-
+    
     /**
      * Pause the animation.
      */
@@ -257,7 +241,7 @@ public class Animation {
      */
     public void pauseAt(int frame)
     {
-    	if ((frame < 0) || (frame >= frames.size())) 
+    	if ((frame < 0) || (frame >= def.getFrameCount())) 
     		stopFrame = 0;
     	else
     		stopFrame = frame; 
@@ -288,29 +272,7 @@ public class Animation {
      */
     public void setAnimationFrame(int f)
     {
-    	if (f < 0 || f >= frames.size()) return;
-    	currFrameIndex = f;
-    }
-    
-    /**
-     * Private class to hold information about a given
-     * animation frame.
-     * 
-     */
-    private class AnimFrame {
-
-        Image image;	// The image for a frame.
-        long endTime;	// The time at which this frame ends.
-
-        /**
-         * Create a new frame with the given image and end time.
-         * 
-         * @param image		The image to use
-         * @param endTime	The associated end time
-         */
-        public AnimFrame(Image image, long endTime) {
-            this.image = image;
-            this.endTime = endTime;
-        }
+    	if (f < 0 || f >= def.getFrameCount()) return;
+    	showFrame(f);
     }
 }
@@ -0,0 +1,147 @@
+package game2D;
+
+import java.awt.Image;
+import java.util.Arrays;
+
+/**
+ * The frames of an animation and the time at which each one ends. A
+ * definition never changes once made, so any number of sprites can share
+ * one, each playing it with an Animation of its own that only needs to
+ * remember how far through it has got.
+ */
+public final class AnimationDefinition {
+
+	private static final Image [] NO_IMAGES = new Image[0];
+
+	/** A definition with no frames. */
+	public static final AnimationDefinition EMPTY = new AnimationDefinition(NO_IMAGES, new long[0], null);
+
+	private final Image [] images;		// The image of each frame
+	private final long [] endTimes;		// The time at which each frame ends, from the start
+	private final Image [] sheet;		// Frames acquired from the asset cache, or null
+	private boolean released;			// True once the sheet has been given back
+
+	/**
+	 * Creates a definition showing each of 'images' for 'frameDuration'.
+	 *
+	 * @param images The frames in the order they are shown
+	 * @param frameDuration The time each frame is shown for
+	 */
+	public AnimationDefinition(Image [] images, long frameDuration)
+	{
+		this(images.clone(), endTimes(images.length, frameDuration), null);
+	}
+
+	/**
+	 * Creates a definition showing each of 'images' for the matching time
+	 * in 'durations'.
+	 *
+	 * @param images The frames in the order they are shown
+	 * @param durations The time each frame is shown for
+	 */
+	public AnimationDefinition(Image [] images, long [] durations)
+	{
+		this(images.clone(), endTimes(durations), null);
+		if (images.length != durations.length)
+			throw new IllegalArgumentException("Expected " + images.length + " durations, not " + durations.length);
+	}
+
+	private AnimationDefinition(Image [] images, long [] endTimes, Image [] sheet)
+	{
+		this.images = images;
+		this.endTimes = endTimes;
+		this.sheet = sheet;
+	}
+
+	/**
+	 * Loads a definition from an animation sheet, showing each frame of the
+	 * sheet, row by row, for 'frameDuration'. The frames come from the
+	 * shared AssetCache; call dispose() when the definition is finished with.
+	 *
+	 * @param fileName The path to the file to load the frames from
+	 * @param columns How many columns there are in the sheet
+	 * @param rows How many rows there are in the sheet
+	 * @param frameDuration The time each frame is shown for
+	 * @return The definition, which has no frames if the sheet could not be loaded
+	 */
+	public static AnimationDefinition fromSheet(String fileName, int columns, int rows, long frameDuration)
+	{
+		Image [] frames = AssetCache.getShared().acquireFrames(fileName, columns, rows);
+		if (frames == null) return EMPTY;
+		return new AnimationDefinition(frames, endTimes(frames.length, frameDuration), frames);
+	}
+
+	/**
+	 * @return A copy of this definition with 'image' added as its last frame, shown for 'duration'
+	 */
+	AnimationDefinition withFrame(Image image, long duration)
+	{
+		int n = images.length;
+		Image [] i = Arrays.copyOf(images, n + 1);
+		long [] e = Arrays.copyOf(endTimes, n + 1);
+		i[n] = image;
+		e[n] = getDuration() + duration;
+		return new AnimationDefinition(i, e, null);
+	}
+
+	/**
+	 * @return The number of frames
+	 */
+	public int getFrameCount() { return images.length; }
+
+	/**
+	 * @param i The index of the frame
+	 * @return The image of frame 'i', or null if there is no such frame
+	 */
+	public Image getFrameImage(int i)
+	{
+		if (i < 0 || i >= images.length) return null;
+		return images[i];
+	}
+
+	/**
+	 * @param i The index of the frame
+	 * @return The time from the start at which frame 'i' ends
+	 */
+	public long getEndTime(int i) { return endTimes[i]; }
+
+	/**
+	 * @return The time one play through takes
+	 */
+	public long getDuration()
+	{
+		return endTimes.length > 0 ? endTimes[endTimes.length - 1] : 0;
+	}
+
+	/**
+	 * Gives the frames loaded by fromSheet() back to the asset cache. The
+	 * definition keeps its frames, but they may be dropped from the cache
+	 * once nothing else uses them.
+	 */
+	public synchronized void dispose()
+	{
+		if (sheet == null || released) return;
+		AssetCache.getShared().release(sheet);
+		released = true;
+	}
+
+	private static long [] endTimes(int count, long frameDuration)
+	{
+		long [] e = new long[count];
+		for (int i=0; i<count; i++)
+			e[i] = (i + 1) * frameDuration;
+		return e;
+	}
+
+	private static long [] endTimes(long [] durations)
+	{
+		long [] e = new long[durations.length];
+		long total = 0;
+		for (int i=0; i<durations.length; i++)
+		{
+			total += durations[i];
+			e[i] = total;
+		}
+		return e;
+	}
+}
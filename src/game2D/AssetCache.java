@@ -0,0 +1,339 @@
+package game2D;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Keeps decoded images, animation frames and sound samples so that each
+ * file is only read and decoded once however many times it is used, e.g.
+ * by every coin in a level or every restart of it.
+ *
+ * Each acquire method counts a reference to the asset, which must be given
+ * back with release() once it is no longer needed.
+ * Assets that nothing refers to stay cached until the cache grows past its
+ * size limit, at which point the least recently used of them are dropped.
+ * Assets in use are never dropped, so the cache can go over its limit if
+ * more than that is in use at once.
+ *
+ * The cache counts its hits, misses and evictions and the memory it holds.
+ * It is safe to use from several threads.
+ */
+public class AssetCache {
+
+	/**
+	 * Decoded sound samples, ready to open a Clip with.
+	 */
+	public static class Pcm {
+		public final AudioFormat format;	// The format of the samples
+		public final byte [] data;			// The samples
+
+		Pcm(AudioFormat format, byte [] data)
+		{
+			this.format = format;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * A cached asset.
+	 */
+	private static class Entry {
+		Object value;		// The image, frames or sound
+		long bytes;			// Roughly how much memory it takes
+		int refs;			// References not yet released
+	}
+
+	private static final AssetCache shared = new AssetCache(64L << 20);
+
+	// The assets by key, least recently used first
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private IdentityHashMap<Object, String> keys = new IdentityHashMap<Object, String>();	// The key of each asset
+	private long maxBytes;		// Size above which unused assets are dropped
+	private long bytes;			// Memory held by the cached assets
+	private long hits;			// Acquires that found their asset cached
+	private long misses;		// Acquires that had to load their asset
+	private long evictions;		// Assets dropped to keep under the size limit
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes The size above which unused assets are dropped
+	 */
+	public AssetCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return The cache shared by the whole game
+	 */
+	public static AssetCache getShared() { return shared; }
+
+	/**
+	 * Gets the decoded image in file 'path', in the screen's format.
+	 *
+	 * @param path The image file
+	 * @return The image, or null if it could not be loaded
+	 */
+	public BufferedImage acquireImage(String path)
+	{
+		String key = "image:" + path;
+		Object value = acquire(key);
+		if (value == null)
+		{
+			BufferedImage img = read(path);
+			if (img == null) return null;
+			img = CompatibleImages.copy(img, 0, 0, img.getWidth(), img.getHeight());
+			value = store(key, img, (long)img.getWidth() * img.getHeight() * 4);
+		}
+		return (BufferedImage)value;
+	}
+
+	/**
+	 * Gets the frames of the sprite sheet in file 'path', split into
+	 * 'columns' by 'rows' frames of equal size, row by row. The same array
+	 * is shared by everyone who asks, so must not be changed.
+	 *
+	 * @param path The sheet file
+	 * @param columns How many columns there are in the sheet
+	 * @param rows How many rows there are in the sheet
+	 * @return The frames, or null if the sheet could not be loaded
+	 */
+	public Image [] acquireFrames(String path, int columns, int rows)
+	{
+		String key = framesKey(path, columns, rows);
+		Object value = acquire(key);
+		if (value == null)
+		{
+			BufferedImage sheet = read(path);
+			if (sheet == null) return null;
+			// Each frame gets an image of its own so it can be drawn with a plain copy.
+			// Splitting the sheet this way is courtesy of Donald Robertson.
+			int width = sheet.getWidth() / columns;
+			int height = sheet.getHeight() / rows;
+			Image [] frames = new Image[columns * rows];
+			for (int i=0; i<rows; i++)
+				for (int j=0; j<columns; j++)
+					frames[i * columns + j] = CompatibleImages.copy(sheet, j * width, i * height, width, height);
+			value = store(key, frames, (long)width * height * 4 * frames.length);
+		}
+		return (Image [])value;
+	}
+
+	/**
+	 * Gets the decoded samples of the sound in file 'path'.
+	 *
+	 * @param path The sound file
+	 * @param fade True to fade the sound out with a FadeFilterStream as it is decoded
+	 * @return The samples, or null if the sound could not be loaded
+	 */
+	public Pcm acquireSound(String path, boolean fade)
+	{
+		String key = (fade ? "faded:" : "sound:") + path;
+		Object value = acquire(key);
+		if (value == null)
+		{
+			Pcm pcm = decodeSound(path, fade);
+			if (pcm == null) return null;
+			value = store(key, pcm, pcm.data.length);
+		}
+		return (Pcm)value;
+	}
+
+	/**
+	 * Gives back a reference to an asset from one of the acquire methods.
+	 *
+	 * @param asset The image, frames or sound given out
+	 */
+	public synchronized void release(Object asset)
+	{
+		String key = keys.get(asset);
+		Entry e = key != null ? entries.get(key) : null;
+		if (e == null || e.refs == 0)
+		{
+			System.err.println("Asset released more times than acquired: " + key);
+			return;
+		}
+		e.refs--;
+		if (e.refs == 0) evict();
+	}
+
+	/**
+	 * Sets the size above which unused assets are dropped, dropping any
+	 * that are now over it.
+	 *
+	 * @param maxBytes The size limit in bytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * @return Roughly how much memory the cached assets take, in bytes
+	 */
+	public synchronized long getBytes() { return bytes; }
+
+	/**
+	 * @return The number of assets cached
+	 */
+	public synchronized int size() { return entries.size(); }
+
+	/**
+	 * @return The number of acquires that found their asset cached
+	 */
+	public synchronized long getHits() { return hits; }
+
+	/**
+	 * @return The number of acquires that had to load their asset
+	 */
+	public synchronized long getMisses() { return misses; }
+
+	/**
+	 * @return The number of assets dropped to keep under the size limit
+	 */
+	public synchronized long getEvictions() { return evictions; }
+
+	/**
+	 * @return A one line summary of the cache's use
+	 */
+	public synchronized String toString()
+	{
+		return String.format("Assets: %d cached (%.1f MB), %d hits, %d misses, %d evicted",
+				entries.size(), bytes / (1024.0 * 1024.0), hits, misses, evictions);
+	}
+
+	/**
+	 * Takes a reference to a cached asset, counting a hit or a miss. Assets
+	 * are loaded outside the lock, so a slow file does not hold up others.
+	 *
+	 * @return The asset, or null if it is not cached and must be loaded
+	 */
+	private synchronized Object acquire(String key)
+	{
+		Entry e = entries.get(key);
+		if (e == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		e.refs++;
+		return e.value;
+	}
+
+	/**
+	 * Adds a newly loaded asset with one reference taken, making room for
+	 * it if need be. If another thread loaded the same asset meanwhile,
+	 * that one is used instead.
+	 *
+	 * @return The cached asset
+	 */
+	private synchronized Object store(String key, Object value, long size)
+	{
+		Entry e = entries.get(key);
+		if (e == null)
+		{
+			e = new Entry();
+			e.value = value;
+			e.bytes = size;
+			entries.put(key, e);
+			keys.put(value, key);
+			bytes += size;
+		}
+		e.refs++;
+		evict();
+		return e.value;
+	}
+
+	/**
+	 * Drops the least recently used assets that are not in use until the
+	 * cache is back under its size limit.
+	 */
+	private void evict()
+	{
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); bytes > maxBytes && it.hasNext();)
+		{
+			Entry e = it.next().getValue();
+			if (e.refs > 0) continue;
+			it.remove();
+			keys.remove(e.value);
+			bytes -= e.bytes;
+			evictions++;
+		}
+	}
+
+	private static String framesKey(String path, int columns, int rows)
+	{
+		return "frames:" + columns + "x" + rows + ":" + path;
+	}
+
+	/**
+	 * Reads and decodes an image file.
+	 */
+	private static BufferedImage read(String path)
+	{
+		try
+		{
+			BufferedImage img = ImageIO.read(new File(path));
+			if (img != null) return img;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to load image '" + path + "':" + e);
+			return null;
+		}
+		System.err.println("Failed to load image '" + path + "'");
+		return null;
+	}
+
+	/**
+	 * Reads a sound file into memory, fading it out if asked to.
+	 */
+	private static Pcm decodeSound(String path, boolean fade)
+	{
+		try
+		{
+			AudioInputStream stream = AudioSystem.getAudioInputStream(new File(path));
+			try
+			{
+				AudioFormat format = stream.getFormat();
+				long frames = stream.getFrameLength();
+				int size = frames > 0 ? (int)(frames * format.getFrameSize()) : 65536;
+				InputStream in = stream;
+				if (fade && frames > 0)
+					in = new AudioInputStream(new FadeFilterStream(stream), format, frames);
+
+				// Read in as few pieces as possible, as the fade restarts with each piece
+				ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+				byte [] buf = new byte[Math.max(size, 1024)];
+				int n;
+				while ((n = in.read(buf, 0, buf.length)) > 0)
+					out.write(buf, 0, n);
+				return new Pcm(format, out.toByteArray());
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to load sound '" + path + "':" + e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package game2D;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Caches a TileMap as a grid of pre-drawn chunk images, each covering a
+ * square block of tiles, so the map can be drawn with a few large image
+ * copies per frame instead of one per tile.
+ *
+ * Chunks are drawn (baked) the first time they are needed. A chunk is
+ * marked stale when one of its tiles changes and baked again the next time
+ * it is drawn. Baked chunks are kept up to a memory limit, beyond which the
+ * chunks that have gone longest without being drawn are thrown away, so a
+ * long level only keeps the chunks around the camera.
+ *
+ * Animated tiles are left out of the chunks, for the map to draw over
+ * them. Tile images are expected to fit within their tile, as each chunk
+ * is clipped to its own tiles. Chunks may be invalidated from the thread
+ * that updates the map while another thread draws it; the change is
+ * picked up by the next draw.
+ */
+public class ChunkCache {
+
+	private TileMap map;			// The map being cached
+	private int chunkTiles;			// Width and height of a chunk in tiles
+	private long maxBytes;			// Most memory the baked chunks may use
+
+	private int across;				// Number of chunks across the map
+	private int down;				// Number of chunks down the map
+	private BufferedImage [] images;	// Baked image of each chunk, null if not baked
+	private boolean [] stale;		// True if a chunk's tiles have changed since it was baked
+	private long [] lastUsed;		// The draw each chunk was last drawn in
+	private long bytes;				// Memory used by the baked chunks
+	private long draws;				// Number of calls to draw()
+	private long bakes;				// Number of chunks baked so far
+
+	private volatile boolean reset;	// True if the map has been reloaded
+	private volatile int changes;	// Bumped on every change so draw() sees stale flags from other threads
+
+	private Rectangle clip = new Rectangle();	// Reused when drawing
+
+	/**
+	 * Creates a cache for 'map'.
+	 *
+	 * @param map The map to cache
+	 * @param chunkTiles The width and height of each chunk in tiles
+	 * @param maxBytes The most memory to use for baked chunks
+	 */
+	public ChunkCache(TileMap map, int chunkTiles, long maxBytes)
+	{
+		this.map = map;
+		this.chunkTiles = Math.max(1, chunkTiles);
+		this.maxBytes = maxBytes;
+		reset = true;
+	}
+
+	/**
+	 * Sets the memory limit, which is applied as new chunks are baked.
+	 *
+	 * @param maxBytes The most memory to use for baked chunks
+	 */
+	public void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; }
+
+	/**
+	 * @return The memory used by baked chunks in bytes
+	 */
+	public long getBytes() { return bytes; }
+
+	/**
+	 * @return The number of chunks baked so far, including re-bakes
+	 */
+	public long getBakes() { return bakes; }
+
+	/**
+	 * Marks the chunk holding tile 'x,y' as needing to be baked again.
+	 *
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 */
+	public void invalidate(int x, int y)
+	{
+		boolean [] s = stale;
+		int i = (y / chunkTiles) * across + x / chunkTiles;
+		if (s != null && i >= 0 && i < s.length) s[i] = true;
+		changes++;
+	}
+
+	/**
+	 * Throws away every chunk, e.g. because a new map has been loaded.
+	 */
+	public void invalidateAll()
+	{
+		reset = true;
+	}
+
+	/**
+	 * Draws the part of the map within the clip of 'g'.
+	 *
+	 * @param g The graphics device to draw to
+	 * @param xoff The x offset to shift the tile map by
+	 * @param yoff The y offset to shift the tile map by
+	 */
+	public void draw(Graphics2D g, int xoff, int yoff)
+	{
+		if (reset) allocate();
+		int seen = changes;		// Reading 'changes' makes stale flags set by other threads visible
+		if (images == null) return;
+		draws++;
+
+		// getClipBounds leaves the rectangle alone when there is no clip, so start with everything
+		clip.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clip);
+
+		int chunkWidth = chunkTiles * map.getTileWidth();
+		int chunkHeight = chunkTiles * map.getTileHeight();
+		int firstX = Math.max(0, Math.floorDiv(clip.x - xoff, chunkWidth));
+		int lastX = Math.min(across - 1, Math.floorDiv(clip.x + clip.width - 1 - xoff, chunkWidth));
+		int firstY = Math.max(0, Math.floorDiv(clip.y - yoff, chunkHeight));
+		int lastY = Math.min(down - 1, Math.floorDiv(clip.y + clip.height - 1 - yoff, chunkHeight));
+
+		for (int cy=firstY; cy<=lastY; cy++)
+		{
+			for (int cx=firstX; cx<=lastX; cx++)
+			{
+				int i = cy * across + cx;
+				if (images[i] == null || stale[i]) bake(cx, cy);
+				lastUsed[i] = draws;
+				g.drawImage(images[i], xoff + cx * chunkWidth, yoff + cy * chunkHeight, null);
+			}
+		}
+	}
+
+	/**
+	 * Sets up the chunk grid for the map's current size.
+	 */
+	private void allocate()
+	{
+		reset = false;
+		across = (map.getMapWidth() + chunkTiles - 1) / chunkTiles;
+		down = (map.getMapHeight() + chunkTiles - 1) / chunkTiles;
+		bytes = 0;
+		if (across <= 0 || down <= 0)
+		{
+			images = null;
+			return;
+		}
+		images = new BufferedImage[across * down];
+		lastUsed = new long[across * down];
+		stale = new boolean[across * down];
+	}
+
+	/**
+	 * Draws the tiles of chunk 'cx,cy' into its image, reusing the old
+	 * image if there is one.
+	 */
+	private void bake(int cx, int cy)
+	{
+		int i = cy * across + cx;
+		int tw = map.getTileWidth();
+		int th = map.getTileHeight();
+		int firstCol = cx * chunkTiles;
+		int firstRow = cy * chunkTiles;
+		int cols = Math.min(chunkTiles, map.getMapWidth() - firstCol);
+		int rows = Math.min(chunkTiles, map.getMapHeight() - firstRow);
+
+		// Cleared before baking so a change made while baking is not lost
+		stale[i] = false;
+		BufferedImage img = images[i];
+		if (img == null)
+		{
+			long size = (long)cols * tw * rows * th * 4;
+			evict(size);
+			img = CompatibleImages.create(cols * tw, rows * th);
+			images[i] = img;
+			bytes += size;
+		}
+
+		Graphics2D g = img.createGraphics();
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, img.getWidth(), img.getHeight());
+		g.setComposite(AlphaComposite.SrcOver);
+		for (int r=0; r<rows; r++)
+		{
+			for (int c=0; c<cols; c++)
+			{
+				Image tile = map.getStillTileImage(firstCol + c, firstRow + r);
+				if (tile != null) g.drawImage(tile, c * tw, r * th, null);
+			}
+		}
+		g.dispose();
+		bakes++;
+	}
+
+	/**
+	 * Throws away the least recently drawn chunks until there is room
+	 * for 'needed' more bytes. Chunks drawn in the current frame are kept.
+	 */
+	private void evict(long needed)
+	{
+		while (bytes + needed > maxBytes)
+		{
+			int oldest = -1;
+			for (int i=0; i<images.length; i++)
+			{
+				if (images[i] != null && lastUsed[i] < draws && (oldest < 0 || lastUsed[i] < lastUsed[oldest]))
+					oldest = i;
+			}
+			if (oldest < 0) return;
+			BufferedImage img = images[oldest];
+			bytes -= (long)img.getWidth() * img.getHeight() * 4;
+			img.flush();
+			images[oldest] = null;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.IOException;
+
+/**
+ * Supplies a StreamingTileMap with its tiles a chunk at a time. A chunk is
+ * a fixed number of whole columns of the map, so chunk 'i' covers columns
+ * 'i * getChunkWidth()' to '(i + 1) * getChunkWidth() - 1'.
+ *
+ * The map may be far wider than would fit in memory, or effectively
+ * endless, as only the chunks around the view are ever asked for.
+ */
+public interface ChunkSource {
+
+	/**
+	 * @return The width of a chunk in tiles
+	 */
+	int getChunkWidth();
+
+	/**
+	 * @return The width of the whole map in tiles
+	 */
+	int getMapWidth();
+
+	/**
+	 * @return The height of the map in tiles
+	 */
+	int getMapHeight();
+
+	/**
+	 * @return The width of a tile in pixels
+	 */
+	int getTileWidth();
+
+	/**
+	 * @return The height of a tile in pixels
+	 */
+	int getTileHeight();
+
+	/**
+	 * @return Every tile character that has an image
+	 */
+	String getTileCharacters();
+
+	/**
+	 * Loads the image for tiles with character 'ch'. Called once per
+	 * character when the map is created.
+	 *
+	 * @param ch One of the characters from getTileCharacters()
+	 * @return The image, or null if it could not be loaded
+	 * @throws IOException If the image could not be read
+	 */
+	Image loadTileImage(char ch) throws IOException;
+
+	/**
+	 * Reads chunk 'index' into 'into', row by row with getChunkWidth()
+	 * characters per row. Columns beyond the right edge of the map should
+	 * be filled with '.'. This is called on a background thread, and may be
+	 * called for different chunks at the same time.
+	 *
+	 * @param index The chunk to read, from 0
+	 * @param into Where to put the tile characters
+	 * @throws IOException If the chunk could not be read
+	 */
+	void loadChunk(int index, char [] into) throws IOException;
+}
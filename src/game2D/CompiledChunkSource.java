@@ -0,0 +1,71 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * Streams a map compiled by MapCompiler. The file is memory mapped, so
+ * each chunk is read straight from the page cache and the rest of the map
+ * never has to be in memory.
+ */
+public class CompiledChunkSource implements ChunkSource {
+
+	private String folder;			// The folder holding the map and its images
+	private CompiledMap file;		// The mapped map
+	private int chunkWidth;			// Width of a chunk in tiles
+
+	/**
+	 * Opens the compiled map 'mapfile' in 'folder'.
+	 *
+	 * @param folder The folder the compiled map and its images are located in
+	 * @param mapfile The name of the compiled map file in the folder
+	 * @param chunkWidth The width of each chunk in tiles
+	 * @throws IOException If the map could not be opened
+	 */
+	public CompiledChunkSource(String folder, String mapfile, int chunkWidth) throws IOException
+	{
+		this.folder = folder;
+		this.chunkWidth = Math.max(1, chunkWidth);
+		file = new CompiledMap(folder + "/" + mapfile);
+	}
+
+	public int getChunkWidth() { return chunkWidth; }
+
+	public int getMapWidth() { return file.width; }
+
+	public int getMapHeight() { return file.height; }
+
+	public int getTileWidth() { return file.tileWidth; }
+
+	public int getTileHeight() { return file.tileHeight; }
+
+	public String getTileCharacters()
+	{
+		StringBuilder s = new StringBuilder();
+		for (int i=0; i<file.chars.length; i++)
+			if (!file.names[i].isEmpty()) s.append(file.chars[i]);
+		return s.toString();
+	}
+
+	public Image loadTileImage(char ch) throws IOException
+	{
+		for (int i=0; i<file.chars.length; i++)
+		{
+			if (file.chars[i] == ch && !file.names[i].isEmpty())
+				return ImageIO.read(new File(folder, file.names[i]));
+		}
+		return null;
+	}
+
+	public void loadChunk(int index, char [] into) throws IOException
+	{
+		int col = index * chunkWidth;
+		if (index < 0 || col >= file.width) throw new IOException("No chunk " + index + " in the map");
+		int cols = Math.min(chunkWidth, file.width - col);
+		if (cols < chunkWidth) Arrays.fill(into, '.');
+		file.readCells(col, cols, into, chunkWidth);
+	}
+}
@@ -0,0 +1,113 @@
+package game2D;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A map file written by MapCompiler, memory mapped so that any part of
+ * its cells can be read without reading the rest of the file. The header
+ * and tile table are read when the file is opened.
+ */
+class CompiledMap {
+
+	int width;				// Map width in tiles
+	int height;				// Map height in tiles
+	int tileWidth;			// Tile width in pixels
+	int tileHeight;			// Tile height in pixels
+	char [] chars;			// The character of each tile id
+	String [] names;		// The image file of each tile id, "" for none
+	String solidChars;		// The characters of solid tiles, or null if not stored
+
+	private MappedByteBuffer buf;	// The whole file
+	private int cellsStart;			// Where the cells start in the file
+	private boolean collision;		// True if collision data follows the cells
+
+	/**
+	 * Opens and maps a compiled map and reads its header.
+	 *
+	 * @param path The file to open
+	 * @throws IOException If the file cannot be read or is not a compiled map
+	 */
+	CompiledMap(String path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			// The mapping stays valid once the channel is closed
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buf.getInt() != MapCompiler.MAGIC)
+			throw new IOException("'" + path + "' is not a compiled tile map");
+		int version = buf.getShort();
+		if (version < 1 || version > MapCompiler.VERSION)
+			throw new IOException("Unsupported compiled tile map version " + version + " in '" + path + "'");
+		collision = (buf.getShort() & MapCompiler.HAS_COLLISION) != 0;
+		width = buf.getInt();
+		height = buf.getInt();
+		tileWidth = buf.getInt();
+		tileHeight = buf.getInt();
+		if (width <= 0 || height <= 0)
+			throw new IOException("Incorrect map dimensions in '" + path + "'");
+
+		// The tile table, giving the character and image file of each tile id
+		int count = buf.getShort() & 0xFFFF;
+		chars = new char[count];
+		names = new String[count];
+		for (int i=0; i<count; i++)
+		{
+			chars[i] = buf.getChar();
+			byte [] name = new byte[buf.getShort() & 0xFFFF];
+			buf.get(name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+		}
+		if (collision && version >= 3)
+		{
+			char [] solid = new char[buf.getShort() & 0xFFFF];
+			for (int i=0; i<solid.length; i++)
+				solid[i] = buf.getChar();
+			solidChars = new String(solid);
+		}
+		cellsStart = buf.position();
+	}
+
+	/**
+	 * Reads the characters of columns 'col' to 'col + cols - 1' of every
+	 * row into 'into', row by row with 'stride' characters per row. Safe to
+	 * call from several threads at once.
+	 *
+	 * @param col The first column to read
+	 * @param cols The number of columns to read
+	 * @param into Where to put the characters
+	 * @param stride The number of characters per row in 'into'
+	 */
+	void readCells(int col, int cols, char [] into, int stride)
+	{
+		ByteBuffer b = buf.duplicate();
+		byte [] ids = new byte[cols];
+		for (int y=0; y<height; y++)
+		{
+			b.position(cellsStart + y * width + col);
+			b.get(ids);
+			int out = y * stride;
+			for (int i=0; i<cols; i++)
+				into[out + i] = chars[ids[i] & 0xFF];
+		}
+	}
+
+	/**
+	 * @return The collision data, one bit per cell row by row, or null if there is none
+	 */
+	long [] readCollision()
+	{
+		if (!collision) return null;
+		ByteBuffer b = buf.duplicate();
+		b.position(cellsStart + width * height);
+		long [] bits = new long[(width * height + 63) / 64];
+		b.asLongBuffer().get(bits);
+		return bits;
+	}
+}
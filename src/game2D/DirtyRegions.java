@@ -0,0 +1,153 @@
+package game2D;
+
+import java.awt.Rectangle;
+
+/**
+ * A small set of rectangles marking the parts of the screen (or of a tile
+ * map) that have changed and need to be drawn again.
+ *
+ * Rectangles that touch or overlap are merged as they are added. Once the
+ * set is full, a new rectangle is merged with whichever existing one grows
+ * the least, so the set never allocates after it is created and drawing
+ * it never costs more than a handful of clipped redraws. The whole area
+ * can also be marked at once with markAll().
+ *
+ * A DirtyRegions object is not thread safe on its own.
+ */
+public class DirtyRegions {
+
+	private static final int MAX_RECTS = 8;		// Most rectangles kept before merging
+
+	private int [] x = new int[MAX_RECTS];		// Top left of each rectangle
+	private int [] y = new int[MAX_RECTS];
+	private int [] w = new int[MAX_RECTS];		// Size of each rectangle
+	private int [] h = new int[MAX_RECTS];
+	private int count;		// Number of rectangles in use
+	private boolean all;	// True if everything is dirty
+
+	/**
+	 * Marks the rectangle 'x,y' of size 'width' by 'height' as dirty.
+	 *
+	 * @param rx The left edge in pixels
+	 * @param ry The top edge in pixels
+	 * @param width The width in pixels
+	 * @param height The height in pixels
+	 */
+	public void add(int rx, int ry, int width, int height)
+	{
+		if (all || width <= 0 || height <= 0) return;
+
+		// Merge with a rectangle it touches
+		for (int i=0; i<count; i++)
+		{
+			if (rx <= x[i] + w[i] && x[i] <= rx + width && ry <= y[i] + h[i] && y[i] <= ry + height)
+			{
+				union(i, rx, ry, width, height);
+				return;
+			}
+		}
+
+		if (count < MAX_RECTS)
+		{
+			x[count] = rx;
+			y[count] = ry;
+			w[count] = width;
+			h[count] = height;
+			count++;
+			return;
+		}
+
+		// Full, so merge with the rectangle that grows the least
+		int best = 0;
+		long bestGrowth = Long.MAX_VALUE;
+		for (int i=0; i<count; i++)
+		{
+			long ux = Math.max(x[i] + w[i], rx + width) - Math.min(x[i], rx);
+			long uy = Math.max(y[i] + h[i], ry + height) - Math.min(y[i], ry);
+			long growth = ux * uy - (long)w[i] * h[i];
+			if (growth < bestGrowth)
+			{
+				bestGrowth = growth;
+				best = i;
+			}
+		}
+		union(best, rx, ry, width, height);
+	}
+
+	/**
+	 * Adds every rectangle in 'other', shifted by 'dx,dy'.
+	 *
+	 * @param other The regions to add
+	 * @param dx The amount to shift them right by
+	 * @param dy The amount to shift them down by
+	 */
+	public void add(DirtyRegions other, int dx, int dy)
+	{
+		if (other.all)
+		{
+			markAll();
+			return;
+		}
+		for (int i=0; i<other.count; i++)
+			add(other.x[i] + dx, other.y[i] + dy, other.w[i], other.h[i]);
+	}
+
+	/**
+	 * Marks everything as dirty.
+	 */
+	public void markAll()
+	{
+		all = true;
+		count = 0;
+	}
+
+	/**
+	 * Marks everything as clean.
+	 */
+	public void clear()
+	{
+		all = false;
+		count = 0;
+	}
+
+	/**
+	 * @return True if nothing is dirty
+	 */
+	public boolean isEmpty() { return !all && count == 0; }
+
+	/**
+	 * @return True if everything is dirty
+	 */
+	public boolean isAll() { return all; }
+
+	/**
+	 * @return The number of dirty rectangles, 0 if isAll() is true
+	 */
+	public int size() { return count; }
+
+	/**
+	 * Copies dirty rectangle 'i' into 'r'.
+	 *
+	 * @param i The index of the rectangle, from 0 to size() - 1
+	 * @param r The rectangle to fill in
+	 * @return r
+	 */
+	public Rectangle get(int i, Rectangle r)
+	{
+		r.setBounds(x[i], y[i], w[i], h[i]);
+		return r;
+	}
+
+	/**
+	 * Grows rectangle 'i' to cover the given rectangle as well.
+	 */
+	private void union(int i, int rx, int ry, int width, int height)
+	{
+		int x2 = Math.max(x[i] + w[i], rx + width);
+		int y2 = Math.max(y[i] + h[i], ry + height);
+		x[i] = Math.min(x[i], rx);
+		y[i] = Math.min(y[i], ry);
+		w[i] = x2 - x[i];
+		h[i] = y2 - y[i];
+	}
+}
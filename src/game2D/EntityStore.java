@@ -0,0 +1,243 @@
+package game2D;
+
+import java.awt.Image;
+import java.util.Arrays;
+
+/**
+ * Holds the state of a group of sprites in parallel arrays, one array for
+ * each property and one slot in each for each sprite, so that the whole
+ * group can be moved and animated in one pass over plain numbers rather
+ * than by visiting each Sprite object in turn.
+ *
+ * Each Sprite made with a store is a handle onto one slot. A slot is taken
+ * when the sprite is made and given back when the sprite is released, after
+ * which the handle must not be used and the slot goes to the next sprite
+ * made. Slots do not move, so handles stay valid as the store grows.
+ *
+ * Like Animation, a store has a single writer and should only be changed
+ * from the game loop thread.
+ */
+public class EntityStore {
+
+	private int slots;				// Slots in use or freed, the rest are untouched
+	private int live;				// Slots in use
+	private int [] free;			// Freed slots, reused last freed first
+	private int freeCount;
+
+	// Position (pixels) and velocity (pixels per millisecond)
+	float [] x, y, dx, dy;
+	// 1 for a visible sprite in use and 0 otherwise, so hidden sprites can
+	// be skipped by multiplying rather than branching in integrate()
+	float [] moving;
+	// Size of the current image after scaling, and the radius that covers it
+	float [] width, height, radius;
+	double [] xscale, yscale;		// Scaling, see Sprite.setScale()
+	double [] rotation;				// Rotation in radians
+	int [] xoff, yoff;				// Draw offsets
+	boolean [] visible;				// True if the sprite is drawn and updated
+	Animation [] anim;				// The current animation
+	Animation [] cursor;			// The sprite's own animation for playing shared definitions, or null
+
+	/**
+	 * Creates an empty store.
+	 *
+	 * @param capacity The number of sprites to make room for, which is grown as needed
+	 */
+	public EntityStore(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		free = new int[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		dx = new float[capacity];
+		dy = new float[capacity];
+		moving = new float[capacity];
+		width = new float[capacity];
+		height = new float[capacity];
+		radius = new float[capacity];
+		xscale = new double[capacity];
+		yscale = new double[capacity];
+		rotation = new double[capacity];
+		xoff = new int[capacity];
+		yoff = new int[capacity];
+		visible = new boolean[capacity];
+		anim = new Animation[capacity];
+		cursor = new Animation[capacity];
+	}
+
+	/**
+	 * @return The number of sprites in the store
+	 */
+	public int size() { return live; }
+
+	/**
+	 * @return The number of slots ever used, which is how far the bulk updates have to look
+	 */
+	public int getSlots() { return slots; }
+
+	/**
+	 * @return The number of sprites the store has room for before it must grow
+	 */
+	public int getCapacity() { return x.length; }
+
+	/**
+	 * Moves every visible sprite by its velocity, then updates its
+	 * animation and size, the same as calling Sprite.update() on each.
+	 *
+	 * @param elapsed The time in milliseconds since the last update
+	 */
+	public void update(long elapsed)
+	{
+		integrate(elapsed);
+		animate(elapsed);
+	}
+
+	/**
+	 * Moves every visible sprite by its velocity. This is a straight run
+	 * over the arrays that the JIT can compile to vector instructions.
+	 *
+	 * @param elapsed The time in milliseconds since the last update
+	 */
+	public void integrate(long elapsed)
+	{
+		float [] x = this.x, y = this.y, dx = this.dx, dy = this.dy, moving = this.moving;
+		float t = elapsed;
+		int n = slots;
+		for (int i=0; i<n; i++)
+		{
+			float m = moving[i] * t;
+			x[i] += dx[i] * m;
+			y[i] += dy[i] * m;
+		}
+	}
+
+	/**
+	 * Updates the animation and size of every visible sprite.
+	 *
+	 * @param elapsed The time in milliseconds since the last update
+	 */
+	public void animate(long elapsed)
+	{
+		for (int i=0; i<slots; i++)
+		{
+			if (moving[i] == 0) continue;
+			anim[i].update(elapsed);
+			measure(i);
+		}
+	}
+
+	/**
+	 * Moves every sprite in the store, visible or not, 'shift' pixels
+	 * across, e.g. to follow the camera.
+	 *
+	 * @param shift The distance to move in pixels
+	 */
+	public void shiftX(float shift)
+	{
+		float [] x = this.x;
+		for (int i=0; i<slots; i++)
+			x[i] += shift;
+	}
+
+	/**
+	 * Takes a slot for a new visible sprite at 0,0 showing 'a'.
+	 *
+	 * @return The slot
+	 */
+	int add(Animation a)
+	{
+		int i;
+		if (freeCount > 0)
+			i = free[--freeCount];
+		else
+		{
+			if (slots == x.length) grow(slots * 2);
+			i = slots++;
+		}
+		live++;
+		anim[i] = a;
+		cursor[i] = null;
+		reset(i);
+		return i;
+	}
+
+	/**
+	 * Puts slot 'i' back as a new visible sprite at 0,0, keeping its animation.
+	 */
+	void reset(int i)
+	{
+		x[i] = y[i] = dx[i] = dy[i] = 0;
+		width[i] = height[i] = radius[i] = 0;
+		xscale[i] = yscale[i] = 1;
+		rotation[i] = 0;
+		xoff[i] = yoff[i] = 0;
+		setVisible(i, true);
+	}
+
+	/**
+	 * Gives back slot 'i' for reuse.
+	 */
+	void remove(int i)
+	{
+		setVisible(i, false);
+		anim[i] = null;
+		cursor[i] = null;
+		free[freeCount++] = i;
+		live--;
+	}
+
+	/**
+	 * Moves, animates and measures the sprite in slot 'i' alone.
+	 */
+	void update(int i, long elapsed)
+	{
+		if (!visible[i]) return;
+		x[i] += dx[i] * elapsed;
+		y[i] += dy[i] * elapsed;
+		anim[i].update(elapsed);
+		measure(i);
+	}
+
+	void setVisible(int i, boolean show)
+	{
+		visible[i] = show;
+		moving[i] = show && anim[i] != null ? 1 : 0;
+	}
+
+	/**
+	 * Works out the size of slot 'i' from its current image and scale.
+	 */
+	private void measure(int i)
+	{
+		Image img = anim[i].getImage();
+		float w = (int)(img.getWidth(null) * Math.abs(xscale[i]));
+		float h = (int)(img.getHeight(null) * Math.abs(yscale[i]));
+		width[i] = w;
+		height[i] = h;
+		radius[i] = (w > h ? w : h) / 2.0f;
+	}
+
+	/**
+	 * Makes room for 'capacity' sprites, keeping those already stored.
+	 */
+	private void grow(int capacity)
+	{
+		free = Arrays.copyOf(free, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		dx = Arrays.copyOf(dx, capacity);
+		dy = Arrays.copyOf(dy, capacity);
+		moving = Arrays.copyOf(moving, capacity);
+		width = Arrays.copyOf(width, capacity);
+		height = Arrays.copyOf(height, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		xscale = Arrays.copyOf(xscale, capacity);
+		yscale = Arrays.copyOf(yscale, capacity);
+		rotation = Arrays.copyOf(rotation, capacity);
+		xoff = Arrays.copyOf(xoff, capacity);
+		yoff = Arrays.copyOf(yoff, capacity);
+		visible = Arrays.copyOf(visible, capacity);
+		anim = Arrays.copyOf(anim, capacity);
+		cursor = Arrays.copyOf(cursor, capacity);
+	}
+}
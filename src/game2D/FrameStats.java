@@ -0,0 +1,164 @@
+package game2D;
+
+/**
+ * Collects how long each phase of a frame takes (update, draw and the
+ * copy to the screen) into latency histograms.
+ *
+ * Two sets of histograms are kept per phase: one for a rolling window,
+ * by default a second long, which is what the percentiles reported by
+ * the get methods describe, and one covering the whole run which is used
+ * for the final report. The window is only swapped when a frame ends,
+ * so the figures always cover whole frames.
+ *
+ * The methods are synchronized as the update phase may be recorded on a
+ * different thread from the draw and blit phases.
+ */
+public class FrameStats {
+
+	public static final int UPDATE = 0;		// Time spent in update()
+	public static final int DRAW = 1;		// Time spent in draw()
+	public static final int BLIT = 2;		// Time spent getting the frame onto the screen
+	public static final int FRAME = 3;		// Time from the start of one frame to the next
+
+	private static final String [] NAMES = { "update", "draw", "blit", "frame" };
+
+	private LatencyHistogram [] current;	// The window being recorded
+	private LatencyHistogram [] previous;	// The last complete window
+	private LatencyHistogram [] total;		// Everything recorded since the start
+
+	private long windowNanos;		// Length of the rolling window
+	private long windowStart;		// When the current window started
+	private long lastFrame;			// When the previous frame ended
+	private long previousLength;	// How long the last complete window actually lasted
+
+	/**
+	 * Creates a set of statistics with a one second window.
+	 */
+	public FrameStats()
+	{
+		current = new LatencyHistogram[NAMES.length];
+		previous = new LatencyHistogram[NAMES.length];
+		total = new LatencyHistogram[NAMES.length];
+		for (int i=0; i<NAMES.length; i++)
+		{
+			current[i] = new LatencyHistogram();
+			previous[i] = new LatencyHistogram();
+			total[i] = new LatencyHistogram();
+		}
+		windowNanos = 1000000000L;
+		windowStart = -1;
+		lastFrame = -1;
+	}
+
+	/**
+	 * @param millis The length of the rolling window in milliseconds
+	 */
+	public synchronized void setWindow(long millis) { windowNanos = Math.max(1, millis) * 1000000L; }
+
+	/**
+	 * Records the time taken by one phase of the current frame.
+	 *
+	 * @param phase UPDATE, DRAW or BLIT
+	 * @param nanos How long it took in nanoseconds
+	 */
+	public synchronized void record(int phase, long nanos)
+	{
+		current[phase].record(nanos);
+		total[phase].record(nanos);
+	}
+
+	/**
+	 * Marks the end of a frame. This records the frame time and rolls the
+	 * window over once it is complete.
+	 *
+	 * @param now The current System.nanoTime()
+	 */
+	public synchronized void endFrame(long now)
+	{
+		if (windowStart < 0) windowStart = now;
+		if (lastFrame >= 0) record(FRAME, now - lastFrame);
+		lastFrame = now;
+
+		if (now - windowStart >= windowNanos)
+		{
+			LatencyHistogram [] t = previous;
+			previous = current;
+			current = t;
+			for (int i=0; i<current.length; i++) current[i].reset();
+			previousLength = now - windowStart;
+			windowStart = now;
+		}
+	}
+
+	/**
+	 * @return The frames per second over the last complete window, or 0 if there has not been one
+	 */
+	public synchronized float getFPS()
+	{
+		if (previousLength <= 0) return 0.0f;
+		return previous[FRAME].getCount() / (previousLength / 1000000000.0f);
+	}
+
+	/**
+	 * @param phase UPDATE, DRAW, BLIT or FRAME
+	 * @return The median time for the phase over the last window in nanoseconds
+	 */
+	public synchronized long getP50(int phase) { return previous[phase].getValueAtPercentile(50); }
+
+	/**
+	 * @param phase UPDATE, DRAW, BLIT or FRAME
+	 * @return The 99th percentile time for the phase over the last window in nanoseconds
+	 */
+	public synchronized long getP99(int phase) { return previous[phase].getValueAtPercentile(99); }
+
+	/**
+	 * @param phase UPDATE, DRAW, BLIT or FRAME
+	 * @return The longest time for the phase over the last window in nanoseconds
+	 */
+	public synchronized long getMax(int phase) { return previous[phase].getMax(); }
+
+	/**
+	 * @param phase UPDATE, DRAW, BLIT or FRAME
+	 * @return The name of the phase
+	 */
+	public static String getName(int phase) { return NAMES[phase]; }
+
+	/**
+	 * @return The number of phases, so callers can loop over them
+	 */
+	public static int getPhaseCount() { return NAMES.length; }
+
+	/**
+	 * Summarises the given phase over the last window, e.g.
+	 * "update p50 0.12 p99 0.40 max 1.31 ms".
+	 *
+	 * @param phase UPDATE, DRAW, BLIT or FRAME
+	 * @return A one line summary of the phase
+	 */
+	public String summary(int phase)
+	{
+		return String.format("%s p50 %.2f p99 %.2f max %.2f ms", NAMES[phase],
+				getP50(phase) / 1e6, getP99(phase) / 1e6, getMax(phase) / 1e6);
+	}
+
+	/**
+	 * Produces a report covering the whole run, one line per phase.
+	 *
+	 * @return The report as a String
+	 */
+	public synchronized String report()
+	{
+		StringBuffer s = new StringBuffer();
+		s.append(String.format("%-7s %10s %9s %9s %9s %9s %9s%n",
+				"phase", "count", "mean", "p50", "p99", "p99.9", "max"));
+		for (int i=0; i<NAMES.length; i++)
+		{
+			LatencyHistogram h = total[i];
+			s.append(String.format("%-7s %10d %9.3f %9.3f %9.3f %9.3f %9.3f%n", NAMES[i], h.getCount(),
+					h.getMean() / 1e6, h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6,
+					h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+		}
+		s.append("(times in ms)\n");
+		return s.toString();
+	}
+}
@@ -1,9 +1,20 @@
 package game2D;
 
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
 
 import javax.swing.*;
 
@@ -13,21 +24,60 @@ import javax.swing.*;
  * 
  * Core Game class that implements default game loop. Subclasses should
  * implement the draw() method and override the update method.
+ * 
+ * The game owns a JFrame when a display is available. In a headless
+ * environment no window is created and the game can only be driven
+ * by a HeadlessRunner.
+ * 
+ * Key and mouse events arrive on the AWT event thread. Rather than act on
+ * them there, GameCore queues them and hands them to keyDown(), keyUp()
+ * and mouseClick() on the game loop thread at the start of the next tick,
+ * so all game state is only ever changed by one thread. Delayed actions
+ * should likewise use schedule() rather than a java.util.Timer.
 */
-public abstract class GameCore extends JFrame implements KeyListener {
+public abstract class GameCore implements KeyListener {
 
-	private static final long serialVersionUID = 1L;
 	protected static final int FONT_SIZE = 12;
     
-    private boolean stop;			// true if the game loop should continue
+    private JFrame window;				// The window we draw to, null when headless
+    private int width;					// Width of the game screen in pixels
+    private int height;					// Height of the game screen in pixels
+    
+    private volatile boolean stop;	// true if the game loop should continue
     private	long startTime;				// The time the game started
     private long currTime;				// The current time
     private long elapsedTime;			// Elapsed time since previous check
     
     private long frames;				// Used to calculate frames per second (FPS)
+    private FrameStats stats;			// Per phase timings of recent frames
+    private Thread reporter;			// Prints the timing report at exit, null if not wanted
+    
+    private boolean fixedStep;			// True if update() should be called at a fixed tick rate
+    private int tickRate;				// Simulation ticks per second in fixed step mode
+    private int maxCatchUpTicks;		// Most ticks that may run before a frame is drawn
+    private boolean threaded;			// True to draw on a separate thread from update()
+    private volatile long lastTickNanos;	// When the last tick's snapshot was published
+    
+    private InputQueue input;			// Input events waiting for the next tick
+    private long gameTime;				// Simulated time in milliseconds, the sum of all ticks
+    private long scheduledCount;		// Number of tasks ever scheduled, keeps equal times in order
+    private PriorityQueue<ScheduledTask> scheduled;	// Tasks waiting to run, soonest first
+    private long [] tickEvents;			// The input events handled by the current tick
+    private InputRecorder recorder;		// Records each tick's input, null if not recording
     
-    private BufferedImage buffer=null;	// buffer is used as a buffered image for drawing offscreen
-    private Graphics2D 	  bg=null;    		// The virtual Graphics2D device associated with the above image
+    private int bufferCount;			// Number of buffers in the window's BufferStrategy
+    
+    private ScreenManager screen;		// Manages the display when in full screen mode, otherwise null
+    private long frameNanos;			// Time between frames at the display refresh rate, 0 if unknown
+    private AffineTransform view;		// Scales the game screen to fill a larger full screen window
+    
+    private boolean dirtyRendering;		// True to only redraw the parts of the screen that changed
+    private DirtyRegions damage;		// Damage marked since the last snapshot (game loop thread only)
+    private DirtyRegions published;		// Damage for snapshots not yet drawn, guarded by itself
+    private DirtyRegions drawing;		// Damage being drawn this frame (render thread only)
+    private BufferedImage canvas;		// Holds the last frame so only damaged parts need drawing again
+    private volatile boolean exposed;	// True if the window must be copied to again in full
+    private Rectangle region;			// Reused when drawing dirty rectangles
     
     
     /**
@@ -41,7 +91,64 @@ public abstract class GameCore extends JFrame implements KeyListener {
         frames = 1;
         startTime = 1;
         currTime = 1;
+        
+        stats = new FrameStats();
+        input = new InputQueue(256);
+        scheduled = new PriorityQueue<ScheduledTask>();
+        tickEvents = new long[16];
+        
+        damage = new DirtyRegions();
+        published = new DirtyRegions();
+        drawing = new DirtyRegions();
+        published.markAll();
+        region = new Rectangle();
+        
+        fixedStep = false;
+        tickRate = 100;
+        maxCatchUpTicks = 5;
+        bufferCount = 2;
+        
+        if (!GraphicsEnvironment.isHeadless())
+        	window = new JFrame();
     }
+    
+    
+    /**
+     * @return The window the game is drawn in, or null when running headless
+     */
+    public JFrame getWindow() { return window; }
+    
+    
+    /**
+     * @return True if there is no window for this game (no display available)
+     */
+    public boolean isHeadless() { return window == null; }
+    
+    
+    /**
+     * Sets the size of the game screen, resizing the window if there is one.
+     * 
+     * @param w Width of the game screen in pixels
+     * @param h Height of the game screen in pixels
+     */
+    public void setSize(int w, int h)
+    {
+    	width = w;
+    	height = h;
+    	if (window != null) window.setSize(w, h);
+    }
+    
+    
+    /**
+     * @return The width of the game screen in pixels
+     */
+    public int getWidth() { return width; }
+    
+    
+    /**
+     * @return The height of the game screen in pixels
+     */
+    public int getHeight() { return height; }
 
 
 
@@ -50,6 +157,176 @@ public abstract class GameCore extends JFrame implements KeyListener {
      * 
      */
     public void stop() { stop = true; }
+    
+    
+    /**
+     * Selects between the default variable step loop, where update() is
+     * given the time measured since the previous frame, and a fixed step
+     * loop where update() is always given the same tick length and frames
+     * are drawn as often as possible in between.
+     * 
+     * @param fixed True to use a fixed simulation timestep
+     */
+    public void setFixedTimestep(boolean fixed) { fixedStep = fixed; }
+    
+    
+    /**
+     * Sets the number of simulation ticks per second used in fixed step
+     * mode. The tick length is a whole number of milliseconds, so rates
+     * that do not divide 1000 are rounded down to the nearest such length.
+     * 
+     * @param rate Ticks per second, between 1 and 1000
+     */
+    public void setTickRate(int rate)
+    {
+    	if (rate < 1) rate = 1;
+    	if (rate > 1000) rate = 1000;
+    	tickRate = rate;
+    }
+    
+    
+    /**
+     * Selects whether frames are drawn on their own thread. When they are,
+     * update() runs at a fixed timestep on the game loop thread and calls
+     * snapshot() after every tick, while a separate render thread keeps
+     * calling draw(). A slow frame then no longer holds up the simulation.
+     * Subclasses that turn this on must draw only from the snapshots they
+     * publish in snapshot(), never from the live game state.
+     * 
+     * @param threaded True to update and draw on separate threads
+     */
+    public void setThreadedRendering(boolean threaded) { this.threaded = threaded; }
+    
+    
+    /**
+     * Sets how many ticks may be run to catch up before a frame is drawn.
+     * If the simulation falls further behind than this, the extra time is
+     * dropped rather than letting the backlog grow every frame.
+     * 
+     * @param ticks The maximum number of ticks per frame
+     */
+    public void setMaxCatchUpTicks(int ticks) { maxCatchUpTicks = Math.max(1, ticks); }
+    
+    
+    /**
+     * Sets how many buffers the window renders through, 2 for double
+     * buffering or 3 for triple buffering. Must be called before run().
+     * 
+     * @param count The number of buffers, 2 or 3
+     */
+    public void setBufferCount(int count) { bufferCount = Math.max(2, Math.min(3, count)); }
+    
+    
+    /**
+     * Turns dirty rectangle rendering on or off. When on, the last frame
+     * is kept and only the areas marked with markDirty() since it was drawn
+     * are drawn again, each with draw() clipped to the area. If nothing was
+     * marked the frame is skipped altogether, so a still screen such as a
+     * menu costs next to nothing. The game must then mark every change it
+     * makes to the screen, and draw() must only narrow the clip it is given
+     * (e.g. with clipRect) rather than replace it.
+     * 
+     * @param dirty True to only redraw what has changed
+     */
+    public void setDirtyRendering(boolean dirty) { dirtyRendering = dirty; }
+    
+    
+    /**
+     * Marks an area of the game screen as needing to be drawn again when
+     * dirty rectangle rendering is on. Must be called from the game loop
+     * thread, e.g. in update() or snapshot().
+     * 
+     * @param x The left edge of the area in pixels
+     * @param y The top edge of the area in pixels
+     * @param w The width of the area in pixels
+     * @param h The height of the area in pixels
+     */
+    public void markDirty(int x, int y, int w, int h) { damage.add(x, y, w, h); }
+    
+    
+    /**
+     * Marks a set of areas as needing to be drawn again, shifted by 'dx,dy',
+     * e.g. to turn tile map damage into screen positions.
+     * 
+     * @param regions The areas to mark
+     * @param dx The amount to shift them right by
+     * @param dy The amount to shift them down by
+     */
+    public void markDirty(DirtyRegions regions, int dx, int dy) { damage.add(regions, dx, dy); }
+    
+    
+    /**
+     * Marks the whole game screen as needing to be drawn again.
+     */
+    public void markAllDirty() { damage.markAll(); }
+    
+    
+    /**
+     * @return The timings of the update, draw and blit phases of recent frames
+     */
+    public FrameStats getFrameStats() { return stats; }
+    
+    
+    /**
+     * Asks for a report of the frame timings for the whole run, and of the
+     * use of the asset cache, to be printed to standard output when the
+     * program exits, however that happens.
+     * 
+     * @param report True to print the report at exit
+     */
+    public synchronized void setReportOnExit(boolean report)
+    {
+    	if (report && reporter == null)
+    	{
+    		reporter = new Thread("Frame stats report") {
+    			public void run() {
+    				System.out.print(stats.report());
+    				System.out.println(AssetCache.getShared());
+    				String extra = getReport();
+    				if (extra != null) System.out.println(extra);
+    			}
+    		};
+    		Runtime.getRuntime().addShutdownHook(reporter);
+    	}
+    	else if (!report && reporter != null)
+    	{
+    		Runtime.getRuntime().removeShutdownHook(reporter);
+    		reporter = null;
+    	}
+    }
+    
+    /**
+     * Gives a game the chance to add its own lines to the report printed
+     * at exit. Called from the thread printing the report.
+     * 
+     * @return The lines to add, or null for none
+     */
+    protected String getReport()
+    {
+    	return null;
+    }
+    
+    
+    /**
+     * Records the elapsed time and input of every tick from now on so the
+     * session can be replayed later. The recording is closed when the
+     * program exits.
+     * 
+     * @param recorder Where to record the ticks
+     */
+    public void setRecorder(final InputRecorder recorder)
+    {
+    	this.recorder = recorder;
+    	Runtime.getRuntime().addShutdownHook(new Thread("Input recording") {
+    		public void run() { recorder.close(); }
+    	});
+    }
+    
+    
+    /**
+     * @return The length of a simulation tick in milliseconds when using a fixed timestep
+     */
+    public long getTickMillis() { return 1000 / tickRate; }
 
 
     /** 
@@ -68,7 +345,7 @@ public abstract class GameCore extends JFrame implements KeyListener {
         }
         finally 
 		{ 
-        	
+        	if (screen != null) screen.restoreScreen();
         }
     }
 
@@ -82,96 +359,665 @@ public abstract class GameCore extends JFrame implements KeyListener {
      */
     private void init(boolean full, int xres, int yres) {
     	
-        setVisible(true);
-        addKeyListener(this);
-        setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
+    	if (window == null)
+    		throw new HeadlessException("GameCore.run needs a display, use a HeadlessRunner instead");
+    	
+    	if (width <= 0 || height <= 0) setSize(xres, yres);
+    	
+    	if (!full || !enterFullScreen())
+    	{
+    		window.setVisible(true);
+    		// We draw every frame ourselves through the buffer strategy
+    		window.setIgnoreRepaint(true);
+    		window.createBufferStrategy(bufferCount);
+    	}
+    	
+        window.addKeyListener(this);
+        window.addMouseListener(new MouseAdapter() {
+        	public void mouseClicked(MouseEvent e) { postMouseClicked(toScreenX(e.getX()), toScreenY(e.getY())); }
+        });
+        // The window contents may be lost when it is uncovered, so copy the whole frame to it again
+        window.addComponentListener(new ComponentAdapter() {
+        	public void componentShown(ComponentEvent e) { expose(); }
+        	public void componentResized(ComponentEvent e) { expose(); }
+        });
+        window.addWindowListener(new WindowAdapter() {
+        	public void windowDeiconified(WindowEvent e) { expose(); }
+        	public void windowActivated(WindowEvent e) { expose(); }
+        });
+        window.setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
+        
+        int refresh = 0;
+        try { refresh = (screen != null ? screen : new ScreenManager()).getRefreshRate(); }
+        catch (RuntimeException ex) { }
+        frameNanos = refresh > 0 ? 1000000000L / refresh : 0;
+    }
+    
+    
+    /**
+     * Tries to switch the window to exclusive full screen mode, using the
+     * display mode closest to the game screen size with the highest refresh
+     * rate. If the game screen is smaller than the display it is scaled up
+     * to fit, keeping its aspect ratio.
+     * 
+     * @return True if full screen mode was entered, false to fall back to a window
+     */
+    private boolean enterFullScreen() {
+    	try {
+    		screen = new ScreenManager();
+    		if (!screen.isFullScreenSupported()) {
+    			screen = null;
+    			return false;
+    		}
+    		
+    		// The window can only be made undecorated if it is not yet showing
+    		if (window.isDisplayable()) window.dispose();
+    		screen.setFullScreen(screen.findBestDisplayMode(width, height), window, bufferCount);
+    		if (window.getBufferStrategy() == null) throw new IllegalStateException("No buffer strategy");
+    		
+    		double scale = Math.min(window.getWidth() / (double)width, window.getHeight() / (double)height);
+    		view = new AffineTransform();
+    		view.translate((window.getWidth() - width * scale) / 2, (window.getHeight() - height * scale) / 2);
+    		view.scale(scale, scale);
+    		return true;
+    	}
+    	catch (RuntimeException ex) {
+    		System.err.println("Full screen mode unavailable, using a window: " + ex);
+    		if (screen != null) screen.restoreScreen();
+    		screen = null;
+    		view = null;
+    		window.setUndecorated(false);
+    		return false;
+    	}
     }
     
 
     /**
-     * Loads an image with the given 'fileName'
+     * Loads an image with the given 'fileName' from the shared AssetCache,
+     * so it is only decoded once however often it is loaded. It is fully
+     * decoded before this returns.
      * 
      * @param fileName The file path to the image file that should be loaded 
-     * @return A reference to the Image object that was loaded
+     * @return A reference to the Image object that was loaded, null if it could not be
      */
     public Image loadImage(String fileName) 
     { 
-    	return new ImageIcon(fileName).getImage(); 
+    	return AssetCache.getShared().acquireImage(fileName); 
     }
 
     /**
      *  Runs through the game loop until stop() is called. 
      *  
      *  This method will call your update() method followed by your draw()
-     *  method to display the updated game state. It implements double buffering
-     *  for both full screen and windowed mode.
+     *  method to display the updated game state. Frames are drawn straight
+     *  into the back buffer of the window's BufferStrategy and then shown.
      */
     public void gameLoop() {
         startTime = System.currentTimeMillis();
         currTime = startTime;
         frames = 1;		// Keep a note of frames for performance measure
 
-        Graphics2D g;
         stop = false;
         
-        // Create our own buffer
-        buffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        bg = (Graphics2D)buffer.createGraphics();
-        bg.setClip(0, 0, getWidth(), getHeight());
+        // Make sure there is something to draw before the first tick
+        publishSnapshot();
+        
+        if (threaded)
+        	threadedLoop();
+        else if (fixedStep)
+        	fixedStepLoop();
+        else
+        	variableStepLoop();
         
+        if (screen != null) screen.restoreScreen();
+        System.exit(0);
+    }
+    
+    /**
+     * The original loop: update() is passed the time since the previous
+     * frame, followed by a draw and a short sleep.
+     */
+    private void variableStepLoop() {
         while (!stop) {
             elapsedTime = System.currentTimeMillis() - currTime;
             currTime += elapsedTime;
 
             // Call the overridden update method
-            update(elapsedTime);
+            long t = System.nanoTime();
+            tick(elapsedTime);
+            publishSnapshot();
+            stats.record(FrameStats.UPDATE, System.nanoTime() - t);
 
-	        // Get the current graphics device 	            
-            g = (Graphics2D)getGraphics();
-            
-            
-	        if (g != null)
-	        {
-	            	draw(bg);
-	            	g.drawImage(buffer,null,0,0);
-            }
+            render(1.0f);
             
             frames++;
+            stats.endFrame(System.nanoTime());
 
             // take a nap
             try { Thread.sleep(10); } catch (InterruptedException ex) { }
         }
-        System.exit(0);
     }
     
     /**
-     * @return The current frames per second (FPS)
+     * Fixed step loop. Real time is accumulated with System.nanoTime() and
+     * consumed in whole ticks, so update() always sees the same elapsed time
+     * no matter how fast frames are drawn. The fraction of a tick left over
+     * is handed to draw() so that it can interpolate between ticks.
+     */
+    private void fixedStepLoop() {
+        long tickMillis = getTickMillis();
+        long tickNanos = tickMillis * 1000000L;
+        long startNanos = System.nanoTime();
+        long lastNanos = startNanos;
+        long nextFrame = startNanos;
+        long accumulator = 0;
+        
+        while (!stop) {
+            long now = System.nanoTime();
+            accumulator += now - lastNanos;
+            lastNanos = now;
+            
+            int ticks = 0;
+            while (accumulator >= tickNanos && ticks < maxCatchUpTicks) {
+            	elapsedTime = tickMillis;
+            	long t = System.nanoTime();
+            	tick(tickMillis);
+            	stats.record(FrameStats.UPDATE, System.nanoTime() - t);
+            	accumulator -= tickNanos;
+            	ticks++;
+            }
+            
+            // Drop any time we could not catch up on to avoid a spiral of death
+            if (accumulator >= tickNanos) accumulator %= tickNanos;
+            
+            if (ticks > 0) publishSnapshot();
+            
+            currTime = startTime + (now - startNanos) / 1000000L;
+            
+            boolean drawn = render((float)accumulator / tickNanos);
+            
+            frames++;
+            stats.endFrame(System.nanoTime());
+            
+            if (!drawn)
+            	nextFrame = pace(now + tickNanos - accumulator, tickNanos);	// Nothing can change before the next tick
+            else if (frameNanos > 0)
+            	nextFrame = pace(nextFrame + frameNanos, frameNanos);
+            else
+            	Thread.yield();
+        }
+    }
+    
+    /**
+     * Threaded loop. This thread runs update() once per tick, calling
+     * snapshot() after each one, and sleeps until the next tick is due.
+     * A render thread draws whatever snapshot was published last, as
+     * often as the display allows.
+     */
+    private void threadedLoop() {
+        final long tickMillis = getTickMillis();
+        final long tickNanos = tickMillis * 1000000L;
+        final long startNanos = System.nanoTime();
+        lastTickNanos = startNanos;
+        
+        Thread renderer = new Thread("Render") {
+        	public void run() {
+        		long nextFrame = System.nanoTime();
+        		while (!stop) {
+        			float alpha = Math.min(1.0f, (System.nanoTime() - lastTickNanos) / (float)tickNanos);
+        			boolean drawn = render(alpha);
+        			frames++;
+        			stats.endFrame(System.nanoTime());
+        			
+        			if (!drawn)
+        				waitForDamage(tickMillis);
+        			else if (frameNanos > 0)
+        				nextFrame = pace(nextFrame + frameNanos, frameNanos);
+        			else
+        				Thread.yield();
+        		}
+        	}
+        };
+        renderer.start();
+        
+        long nextTick = startNanos;
+        while (!stop) {
+        	elapsedTime = tickMillis;
+        	long t = System.nanoTime();
+        	tick(tickMillis);
+        	publishSnapshot();
+        	long done = System.nanoTime();
+        	stats.record(FrameStats.UPDATE, done - t);
+        	lastTickNanos = done;
+        	currTime = startTime + (done - startNanos) / 1000000L;
+        	
+        	// Run straight on to catch up if behind, up to the catch-up limit
+        	nextTick = pace(nextTick + tickNanos, tickNanos * maxCatchUpTicks);
+        }
+        
+        expose();	// Wakes the renderer if it is waiting
+        try { renderer.join(); } catch (InterruptedException ex) { }
+    }
+    
+    /**
+     * Calls snapshot() and then hands the damage marked since the last
+     * snapshot to the renderer along with it. Both happen under the lock
+     * the renderer takes in renderDirty(), so a frame never draws a
+     * snapshot without also having its damage.
+     */
+    void publishSnapshot() {
+    	synchronized (published) {
+    		snapshot();
+    		if (damage.isEmpty()) return;
+    		published.add(damage, 0, 0);
+    		published.notify();
+    	}
+    	damage.clear();
+    }
+    
+    /**
+     * Asks for the whole of the last frame to be copied to the window again,
+     * and wakes the renderer if it is waiting.
+     */
+    private void expose() {
+    	exposed = true;
+    	synchronized (published) { published.notify(); }
+    }
+    
+    /**
+     * Waits on the render thread until there is something to draw, or at
+     * most 'millis' milliseconds.
+     */
+    private void waitForDamage(long millis) {
+    	synchronized (published) {
+    		if (!published.isEmpty() || exposed || stop) return;
+    		try { published.wait(millis); } catch (InterruptedException ex) { }
+    	}
+    }
+    
+    /**
+     * Waits until 'deadline' so that frames (or ticks) do not run faster
+     * than they are due. Sleeps for most of the wait and yields for the
+     * last millisecond, since sleep is not precise enough on its own.
+     * 
+     * @param deadline The System.nanoTime() at which the next frame is due
+     * @param maxLag How far behind we may fall before giving up on catching up
+     * @return The deadline to pace the following frame from
+     */
+    private long pace(long deadline, long maxLag) {
+    	long now = System.nanoTime();
+    	// If we have fallen too far behind, start again from now
+    	if (now - deadline > maxLag) return now;
+    	
+    	while (deadline - now > 0) {
+    		long wait = deadline - now;
+    		if (wait > 2000000L)
+    			try { Thread.sleep((wait - 1000000L) / 1000000L); } catch (InterruptedException ex) { }
+    		else
+    			Thread.yield();
+    		now = System.nanoTime();
+    	}
+    	return deadline;
+    }
+    
+    /**
+     * Draws a frame into the back buffer and shows it. If the buffer
+     * contents are lost or restored part way through (e.g. the window was
+     * minimised or the display mode changed) the frame is drawn again.
+     * 
+     * @param alpha How far we are between the last tick and the next (0 to 1)
+     * @return False if dirty rendering skipped the frame as nothing had changed
+     */
+    private boolean render(float alpha) {
+        BufferStrategy strategy = window.getBufferStrategy();
+        if (strategy == null) return true;
+        if (dirtyRendering) return renderDirty(strategy, alpha);
+        
+        beginFrame();
+        do {
+        	do {
+        		Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+        		long t = System.nanoTime();
+        		try {
+        			if (view != null) {
+        				// Clear the borders around the scaled game screen
+        				g.setColor(Color.BLACK);
+        				g.fillRect(0, 0, window.getWidth(), window.getHeight());
+        				g.transform(view);
+        			}
+        			g.setClip(0, 0, width, height);
+        			draw(g, alpha);
+        		}
+        		finally {
+        			g.dispose();
+        		}
+        		stats.record(FrameStats.DRAW, System.nanoTime() - t);
+        	} while (strategy.contentsRestored());
+        	
+        	show(strategy);
+        } while (strategy.contentsLost());
+        return true;
+    }
+    
+    /**
+     * Dirty rectangle version of render(). The damaged areas are drawn into
+     * a retained canvas, one clipped draw() per area, and then copied to the
+     * back buffer. Only the damaged areas are copied when the back buffer
+     * keeps its contents between frames, otherwise the whole canvas is.
+     */
+    private boolean renderDirty(BufferStrategy strategy, float alpha) {
+    	drawing.clear();
+    	synchronized (published) {
+    		drawing.add(published, 0, 0);
+    		published.clear();
+    		// Every area of the frame is drawn from the snapshot this damage belongs to
+    		beginFrame();
+    	}
+    	boolean full = exposed;
+    	exposed = false;
+    	
+    	if (canvas == null) {
+    		canvas = window.getGraphicsConfiguration().createCompatibleImage(width, height);
+    		drawing.markAll();
+    	}
+    	if (drawing.isEmpty() && !full) return false;
+    	
+    	long t = System.nanoTime();
+    	Graphics2D cg = canvas.createGraphics();
+    	try {
+    		if (drawing.isAll()) {
+    			drawRegion(cg, 0, 0, width, height, alpha);
+    		}
+    		else {
+    			for (int i=0; i<drawing.size(); i++) {
+    				drawing.get(i, region);
+    				drawRegion(cg, region.x, region.y, region.width, region.height, alpha);
+    			}
+    		}
+    	}
+    	finally {
+    		cg.dispose();
+    	}
+    	stats.record(FrameStats.DRAW, System.nanoTime() - t);
+    	
+    	// A blit strategy or a flip that copies leaves the last frame in the back buffer
+    	BufferCapabilities caps = strategy.getCapabilities();
+    	boolean retained = !caps.isPageFlipping() || caps.getFlipContents() == BufferCapabilities.FlipContents.COPIED;
+    	if (!retained || drawing.isAll()) full = true;
+    	
+    	boolean lost;
+    	do {
+    		boolean restored;
+    		do {
+    			copyCanvas(strategy, full);
+    			// A restored buffer has lost the last frame so needs all of it
+    			restored = strategy.contentsRestored();
+    			full |= restored;
+    		} while (restored);
+    		
+    		show(strategy);
+    		lost = strategy.contentsLost();
+    		full |= lost;
+    	} while (lost);
+    	return true;
+    }
+    
+    /**
+     * Copies the canvas to the back buffer, either all of it or just the
+     * areas in 'drawing'.
+     */
+    private void copyCanvas(BufferStrategy strategy, boolean full) {
+    	Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+    	try {
+    		if (full && view != null) {
+    			g.setColor(Color.BLACK);
+    			g.fillRect(0, 0, window.getWidth(), window.getHeight());
+    		}
+    		if (view != null) g.transform(view);
+    		if (full) {
+    			g.drawImage(canvas, 0, 0, null);
+    			return;
+    		}
+    		for (int i=0; i<drawing.size(); i++) {
+    			drawing.get(i, region);
+    			int x2 = region.x + region.width;
+    			int y2 = region.y + region.height;
+    			g.drawImage(canvas, region.x, region.y, x2, y2, region.x, region.y, x2, y2, null);
+    		}
+    	}
+    	finally {
+    		g.dispose();
+    	}
+    }
+    
+    /**
+     * Draws the area 'x,y,w,h' of the game screen with draw() clipped to it.
+     */
+    private void drawRegion(Graphics2D cg, int x, int y, int w, int h, float alpha) {
+    	cg.setClip(0, 0, width, height);
+    	cg.clipRect(x, y, w, h);
+    	if (cg.getClipBounds(region).isEmpty()) return;
+    	draw(cg, alpha);
+    }
+    
+    /**
+     * Shows the back buffer and records how long it took.
+     */
+    private void show(BufferStrategy strategy) {
+    	long t = System.nanoTime();
+    	strategy.show();
+    	// Sync the display on some systems (on Linux, this fixes event queue problems)
+    	Toolkit.getDefaultToolkit().sync();
+    	stats.record(FrameStats.BLIT, System.nanoTime() - t);
+    }
+    
+    /**
+     * Converts an x position in the window to one on the game screen, which
+     * differ when the game is scaled up to fill a full screen window.
+     */
+    private int toScreenX(int x) {
+    	if (view == null) return x;
+    	return (int)((x - view.getTranslateX()) / view.getScaleX());
+    }
+    
+    /**
+     * Converts a y position in the window to one on the game screen.
+     */
+    private int toScreenY(int y) {
+    	if (view == null) return y;
+    	return (int)((y - view.getTranslateY()) / view.getScaleY());
+    }
+    
+    /**
+     * Runs one tick of the game: queued input is handed to the game, any
+     * scheduled tasks that are due are run and then update() is called.
+     * When recording, the elapsed time and input are written out first.
+     * 
+     * @param elapsed The length of the tick in milliseconds
+     */
+    void tick(long elapsed) {
+    	int count = 0;
+    	long event;
+    	while ((event = input.poll()) != 0) {
+    		if (count == tickEvents.length) tickEvents = Arrays.copyOf(tickEvents, count * 2);
+    		tickEvents[count++] = event;
+    	}
+    	if (recorder != null) recorder.record(elapsed, tickEvents, count);
+    	
+    	for (int i=0; i<count; i++) {
+    		event = tickEvents[i];
+    		switch (InputQueue.typeOf(event)) {
+    		case InputQueue.KEY_PRESSED:
+    			keyDown(InputQueue.codeOf(event));
+    			break;
+    		case InputQueue.KEY_RELEASED:
+    			keyUp(InputQueue.codeOf(event));
+    			break;
+    		case InputQueue.MOUSE_CLICKED:
+    			mouseClick(InputQueue.xOf(event), InputQueue.yOf(event));
+    			break;
+    		}
+    	}
+    	
+    	gameTime += elapsed;
+    	while (!scheduled.isEmpty() && scheduled.peek().time <= gameTime) {
+    		ScheduledTask task = scheduled.poll();
+    		if (task.period > 0) {
+    			task.time += task.period;
+    			scheduled.add(task);
+    		}
+    		task.action.run();
+    	}
+    	
+    	update(elapsed);
+    }
+    
+    /**
+     * Runs 'action' on the game loop thread once 'delay' milliseconds of
+     * game time have passed. Must be called from the game loop thread.
+     * 
+     * @param action The action to run
+     * @param delay The delay in milliseconds of game time
+     */
+    public void schedule(Runnable action, long delay) { schedule(action, delay, 0); }
+    
+    /**
+     * Runs 'action' on the game loop thread once 'delay' milliseconds of
+     * game time have passed and then every 'period' milliseconds after.
+     * Must be called from the game loop thread.
+     * 
+     * @param action The action to run
+     * @param delay The delay in milliseconds of game time before the first run
+     * @param period The time between runs, or 0 to only run once
+     */
+    public void schedule(Runnable action, long delay, long period) {
+    	scheduled.add(new ScheduledTask(action, gameTime + delay, period, scheduledCount++));
+    }
+    
+    /**
+     * Stops 'action' from running again, cancelling every task that was
+     * scheduled with it. Must be called from the game loop thread.
+     * 
+     * @param action The action passed to schedule()
+     */
+    public void cancel(Runnable action) {
+    	for (Iterator<ScheduledTask> it = scheduled.iterator(); it.hasNext();) {
+    		if (it.next().action == action) it.remove();
+    	}
+    }
+    
+    /**
+     * @return The simulated time in milliseconds, i.e. the total of every tick so far
+     */
+    public long getGameTime() { return gameTime; }
+    
+    /**
+     * An action waiting to be run by tick().
+     */
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+    	Runnable action;	// What to run
+    	long time;			// Game time it is due
+    	long period;		// Time between repeats, 0 for none
+    	long order;			// Tie break so tasks due at the same time run in the order scheduled
+    	
+    	ScheduledTask(Runnable action, long time, long period, long order) {
+    		this.action = action;
+    		this.time = time;
+    		this.period = period;
+    		this.order = order;
+    	}
+    	
+    	public int compareTo(ScheduledTask other) {
+    		if (time != other.time) return time < other.time ? -1 : 1;
+    		return Long.compare(order, other.order);
+    	}
+    }
+    
+    /**
+     * @return The current frames per second (FPS) over the last second, or the
+     * average since the start if a second has not yet passed
      */
     public float getFPS()
     {
+    	float fps = stats.getFPS();
+    	if (fps > 0) return fps;
     	if (currTime - startTime <= 0) return 0.0f;
     	return (float)frames/((currTime - startTime)/1000.0f);
     }
 
     /**
-     * Handles the keyReleased event to check for the 'Escape' key being
-     * pressed. If you override this method, make sure you allow the user 
-     * to stop the game.
+     * Queues a key press to be handled by keyDown() on the next tick.
+     * Safe to call from any thread.
+     * 
+     * @param keyCode The KeyEvent code of the key
      */
-	public void keyReleased(KeyEvent e) 
-	{ 
-		if (e.getKeyCode() == KeyEvent.VK_ESCAPE) stop(); 
-	}
+    public void postKeyPressed(int keyCode) { input.offer(InputQueue.pack(InputQueue.KEY_PRESSED, keyCode, 0, 0)); }
+    
+    /**
+     * Queues a key release to be handled by keyUp() on the next tick.
+     * Safe to call from any thread.
+     * 
+     * @param keyCode The KeyEvent code of the key
+     */
+    public void postKeyReleased(int keyCode) { input.offer(InputQueue.pack(InputQueue.KEY_RELEASED, keyCode, 0, 0)); }
+    
+    /**
+     * Queues a mouse click to be handled by mouseClick() on the next tick.
+     * Safe to call from any thread.
+     * 
+     * @param x The x position on the game screen in pixels
+     * @param y The y position on the game screen in pixels
+     */
+    public void postMouseClicked(int x, int y) { input.offer(InputQueue.pack(InputQueue.MOUSE_CLICKED, 0, x, y)); }
+    
+    /**
+     * Queues an already packed event, e.g. one read back from a recording.
+     * 
+     * @param event The packed event (see InputQueue)
+     */
+    void postEvent(long event) { input.offer(event); }
 
-	/**
-	 * Handler for the keyPressed event (empty)
-	 */
-	public void keyPressed(KeyEvent e) { }
+    /**
+     * Queues the key press for the game loop thread.
+     */
+	public void keyPressed(KeyEvent e) { postKeyPressed(e.getKeyCode()); }
+
+    /**
+     * Queues the key release for the game loop thread.
+     */
+	public void keyReleased(KeyEvent e) { postKeyReleased(e.getKeyCode()); }
 	
 	/**
 	 * Handler for the keyTyped event (empty)
 	 */
 	public void keyTyped(KeyEvent e) {	}
+	
+    /**
+     * Called on the game loop thread when a key has been pressed.
+     * 
+     * @param keyCode The KeyEvent code of the key
+     */
+	public void keyDown(int keyCode) { }
+	
+    /**
+     * Called on the game loop thread when a key has been released. The
+     * default checks for the 'Escape' key being released. If you override
+     * this method, make sure you allow the user to stop the game.
+     * 
+     * @param keyCode The KeyEvent code of the key
+     */
+	public void keyUp(int keyCode) 
+	{ 
+		if (keyCode == KeyEvent.VK_ESCAPE) stop(); 
+	}
+	
+    /**
+     * Called on the game loop thread when the mouse has been clicked.
+     * 
+     * @param x The x position on the game screen in pixels
+     * @param y The y position on the game screen in pixels
+     */
+	public void mouseClick(int x, int y) { }
 		
     /** 
      * Updates the state of the game/animation based on the
@@ -188,4 +1034,34 @@ public abstract class GameCore extends JFrame implements KeyListener {
      * @param g The Graphics2D object to draw with.
      */
     public abstract void draw(Graphics2D g);
+    
+    
+    /**
+     * Called on the update thread after update() whenever a frame may be
+     * drawn from the new state. Games that draw on a separate thread (see
+     * setThreadedRendering) copy what draw() needs into a snapshot here.
+     * The default implementation does nothing.
+     */
+    protected void snapshot() { }
+    
+    
+    /**
+     * Called before each frame is drawn, on the thread that draws it. A
+     * frame may be drawn with several calls to draw(), one per dirty area,
+     * so games that draw from published snapshots take the latest one here
+     * and draw every area from it. The default implementation does nothing.
+     */
+    public void beginFrame() { }
+    
+    
+    /**
+     * Called by the game loop to draw a frame. In fixed step mode 'alpha'
+     * gives how far real time has moved past the last tick, as a fraction
+     * of a tick, which can be used to interpolate positions. The default
+     * implementation ignores it and calls draw(g).
+     * 
+     * @param g The Graphics2D object to draw with.
+     * @param alpha The interpolation factor between the previous and next tick (0 to 1)
+     */
+    public void draw(Graphics2D g, float alpha) { draw(g); }
 }
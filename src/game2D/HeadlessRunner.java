@@ -0,0 +1,186 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Drives a GameCore without a window. Each tick feeds any synthetic input
+ * to the game and runs a tick with a fixed elapsed time, as fast as the
+ * machine allows. Frames can optionally be drawn into an offscreen image so
+ * that the cost of draw() is included as well.
+ *
+ * This makes it possible to benchmark or soak test the simulation, or run
+ * it on a machine with no display at all. A session recorded with an
+ * InputRecorder can also be replayed to compare its cost between builds.
+ */
+public class HeadlessRunner {
+
+	/**
+	 * Supplies input to the game on each tick of a headless run.
+	 */
+	public interface Input {
+		/**
+		 * Called before the game is updated on each tick.
+		 *
+		 * @param runner The runner, used to send key presses and mouse clicks
+		 * @param tick The number of the tick about to run, starting at 0
+		 */
+		void tick(HeadlessRunner runner, long tick);
+	}
+
+	private GameCore game;			// The game being run
+	private Input input;			// Synthetic input, or null for none
+	private long tickMillis;		// Elapsed time passed to update() each tick
+	private boolean render;			// True if each tick should also be drawn
+
+	private BufferedImage frame;	// The offscreen image drawn to when rendering
+	private Graphics2D fg;			// Graphics for the above image
+
+	private long ticks;				// Ticks run so far
+	private long runNanos;			// Time spent in run() so far
+
+	/**
+	 * Creates a runner for 'game' which updates it in 10ms ticks with no
+	 * input and no rendering.
+	 *
+	 * @param game The game to run
+	 */
+	public HeadlessRunner(GameCore game)
+	{
+		this.game = game;
+		tickMillis = 10;
+		render = false;
+	}
+
+	/**
+	 * @param millis The elapsed time to pass to update() each tick
+	 */
+	public void setTickMillis(long millis) { tickMillis = millis; }
+
+	/**
+	 * @param input The synthetic input to feed the game, or null for none
+	 */
+	public void setInput(Input input) { this.input = input; }
+
+	/**
+	 * @param render True to draw every tick into an offscreen image
+	 */
+	public void setRendering(boolean render) { this.render = render; }
+
+	/**
+	 * Runs the game for the given number of ticks.
+	 *
+	 * @param count The number of ticks to run
+	 * @return The time taken in nanoseconds
+	 */
+	public long run(long count)
+	{
+		long start = System.nanoTime();
+		for (long i=0; i<count; i++)
+		{
+			if (input != null) input.tick(this, ticks);
+			step(tickMillis);
+		}
+		long taken = System.nanoTime() - start;
+		runNanos += taken;
+		return taken;
+	}
+
+	/**
+	 * Plays a recorded session through the game as fast as possible. Each
+	 * recorded tick has its input queued and is then run with its recorded
+	 * elapsed time, so a game started with the same seed goes through
+	 * exactly the same states as it did when recorded. Any synthetic input
+	 * set with setInput() is ignored.
+	 *
+	 * @param replay The recording to play, positioned before its first tick
+	 * @return The time taken in nanoseconds
+	 * @throws IOException If the recording could not be read
+	 */
+	public long replay(InputReplay replay) throws IOException
+	{
+		long start = System.nanoTime();
+		while (replay.next())
+		{
+			for (int i=0; i<replay.getEventCount(); i++)
+				game.postEvent(replay.getEvent(i));
+			step(replay.getElapsed());
+		}
+		long taken = System.nanoTime() - start;
+		runNanos += taken;
+		return taken;
+	}
+
+	/**
+	 * Runs a single tick, draws it if rendering and records the timings.
+	 */
+	private void step(long elapsed)
+	{
+		if (render && frame == null)
+		{
+			frame = new BufferedImage(game.getWidth(), game.getHeight(), BufferedImage.TYPE_INT_RGB);
+			fg = frame.createGraphics();
+			fg.setClip(0, 0, game.getWidth(), game.getHeight());
+		}
+
+		FrameStats stats = game.getFrameStats();
+		long t = System.nanoTime();
+		game.tick(elapsed);
+		long updated = System.nanoTime();
+		stats.record(FrameStats.UPDATE, updated - t);
+		t = updated;
+		if (render)
+		{
+			game.publishSnapshot();
+			game.beginFrame();
+			game.draw(fg, 1.0f);
+			updated = System.nanoTime();
+			stats.record(FrameStats.DRAW, updated - t);
+			t = updated;
+		}
+		stats.endFrame(t);
+		ticks++;
+	}
+
+	/**
+	 * Sends a key press to the game.
+	 *
+	 * @param keyCode The KeyEvent code of the key
+	 */
+	public void pressKey(int keyCode) { game.postKeyPressed(keyCode); }
+
+	/**
+	 * Sends a key release to the game.
+	 *
+	 * @param keyCode The KeyEvent code of the key
+	 */
+	public void releaseKey(int keyCode) { game.postKeyReleased(keyCode); }
+
+	/**
+	 * Sends a mouse click at 'x,y' to the game.
+	 *
+	 * @param x The x position of the click in pixels
+	 * @param y The y position of the click in pixels
+	 */
+	public void click(int x, int y) { game.postMouseClicked(x, y); }
+
+	/**
+	 * @return The last frame drawn, or null if rendering is off
+	 */
+	public BufferedImage getFrame() { return frame; }
+
+	/**
+	 * @return The number of ticks run so far
+	 */
+	public long getTicks() { return ticks; }
+
+	/**
+	 * @return The average number of ticks run per second of real time
+	 */
+	public double getTicksPerSecond()
+	{
+		if (runNanos <= 0) return 0;
+		return ticks / (runNanos / 1000000000.0);
+	}
+}
@@ -0,0 +1,131 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock free queue of input events that any number of threads
+ * (e.g. the AWT event thread) can add to and a single thread (the game
+ * loop) takes from.
+ *
+ * Each event is packed into a single long holding its type, key code and
+ * mouse position, so the queue never allocates once created. The slots
+ * work like a ring: every slot has a sequence number that tells producers
+ * when it is free to fill and the consumer when it has been filled.
+ */
+public class InputQueue {
+
+	public static final int KEY_PRESSED = 1;	// A key was pressed, 'code' is the KeyEvent code
+	public static final int KEY_RELEASED = 2;	// A key was released, 'code' is the KeyEvent code
+	public static final int MOUSE_CLICKED = 3;	// The mouse was clicked at 'x,y'
+
+	private long [] events;				// The packed events
+	private AtomicLongArray sequence;	// Sequence number of each slot
+	private int mask;					// Capacity - 1, to wrap indexes
+	private AtomicLong tail;			// Next position producers will claim
+	private long head;					// Next position the consumer will read (consumer only)
+
+	/**
+	 * Creates a queue that can hold at least 'capacity' events.
+	 *
+	 * @param capacity The number of events to hold, rounded up to a power of 2
+	 */
+	public InputQueue(int capacity)
+	{
+		int size = 2;
+		while (size < capacity) size <<= 1;
+		events = new long[size];
+		sequence = new AtomicLongArray(size);
+		for (int i=0; i<size; i++) sequence.set(i, i);
+		mask = size - 1;
+		tail = new AtomicLong(0);
+		head = 0;
+	}
+
+	/**
+	 * Adds an event to the queue. Safe to call from any thread.
+	 *
+	 * @param event The packed event, see pack()
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean offer(long event)
+	{
+		while (true)
+		{
+			long t = tail.get();
+			int slot = (int)(t & mask);
+			long diff = sequence.get(slot) - t;
+			if (diff == 0)
+			{
+				if (tail.compareAndSet(t, t + 1))
+				{
+					events[slot] = event;
+					// Publishes the event to the consumer
+					sequence.lazySet(slot, t + 1);
+					return true;
+				}
+			}
+			else if (diff < 0)
+			{
+				return false;	// The consumer has not emptied this slot yet
+			}
+		}
+	}
+
+	/**
+	 * Takes the oldest event from the queue. Must only be called from the
+	 * consuming thread.
+	 *
+	 * @return The packed event, or 0 if the queue is empty
+	 */
+	public long poll()
+	{
+		int slot = (int)(head & mask);
+		if (sequence.get(slot) != head + 1) return 0;
+		long event = events[slot];
+		// Hand the slot back to the producers for the next lap of the ring
+		sequence.lazySet(slot, head + mask + 1);
+		head++;
+		return event;
+	}
+
+	/**
+	 * Packs an event into a long. The type is never 0, so a packed event
+	 * is never 0 either.
+	 *
+	 * @param type KEY_PRESSED, KEY_RELEASED or MOUSE_CLICKED
+	 * @param code The key code (0 to 65535)
+	 * @param x The mouse x position (0 to 1048575)
+	 * @param y The mouse y position (0 to 1048575)
+	 * @return The packed event
+	 */
+	public static long pack(int type, int code, int x, int y)
+	{
+		return ((long)(type & 0xF) << 56) | ((long)(code & 0xFFFF) << 40)
+				| ((long)(Math.max(0, x) & 0xFFFFF) << 20) | (Math.max(0, y) & 0xFFFFF);
+	}
+
+	/**
+	 * @param event A packed event
+	 * @return Its type
+	 */
+	public static int typeOf(long event) { return (int)(event >>> 56) & 0xF; }
+
+	/**
+	 * @param event A packed event
+	 * @return Its key code
+	 */
+	public static int codeOf(long event) { return (int)(event >>> 40) & 0xFFFF; }
+
+	/**
+	 * @param event A packed event
+	 * @return Its mouse x position
+	 */
+	public static int xOf(long event) { return (int)(event >>> 20) & 0xFFFFF; }
+
+	/**
+	 * @param event A packed event
+	 * @return Its mouse y position
+	 */
+	public static int yOf(long event) { return (int)event & 0xFFFFF; }
+}
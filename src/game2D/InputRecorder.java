@@ -0,0 +1,94 @@
+package game2D;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the input a game receives, tick by tick, to a compact binary
+ * log that an InputReplay can play back.
+ *
+ * The log starts with a header: the magic number 'DJIL', a format version
+ * and the seed the game used for its random numbers. Each tick then adds
+ * its elapsed time and the number of input events it handled, both as
+ * variable length integers, followed by the packed events themselves
+ * (see InputQueue). A typical tick with no input takes 2 bytes.
+ */
+public class InputRecorder {
+
+	static final int MAGIC = 0x444A494C;	// 'DJIL'
+	static final int VERSION = 1;
+
+	private DataOutputStream out;	// Where the log is written
+	private long ticks;				// Number of ticks recorded
+
+	/**
+	 * Creates a new log file and writes its header.
+	 *
+	 * @param fileName The file to record to
+	 * @param seed The random seed the game is using
+	 * @throws IOException If the file could not be written
+	 */
+	public InputRecorder(String fileName, long seed) throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(seed);
+	}
+
+	/**
+	 * Records one tick.
+	 *
+	 * @param elapsed The elapsed time passed to update() in milliseconds
+	 * @param events The packed input events handled this tick
+	 * @param count The number of events in 'events' to record
+	 */
+	public synchronized void record(long elapsed, long [] events, int count)
+	{
+		if (out == null) return;
+		try
+		{
+			writeVarLong(elapsed);
+			writeVarLong(count);
+			for (int i=0; i<count; i++) out.writeLong(events[i]);
+			ticks++;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to record input, recording stopped: " + e);
+			close();
+		}
+	}
+
+	/**
+	 * @return The number of ticks recorded so far
+	 */
+	public long getTicks() { return ticks; }
+
+	/**
+	 * Flushes and closes the log. Further ticks are ignored.
+	 */
+	public synchronized void close()
+	{
+		if (out == null) return;
+		try { out.close(); }
+		catch (IOException e) { System.err.println("Failed to close input recording: " + e); }
+		out = null;
+	}
+
+	/**
+	 * Writes 'v' 7 bits at a time, lowest first, with the top bit of
+	 * each byte set if more follow.
+	 */
+	private void writeVarLong(long v) throws IOException
+	{
+		while ((v & ~0x7FL) != 0)
+		{
+			out.write((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int)v);
+	}
+}
@@ -0,0 +1,109 @@
+package game2D;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads back a log written by an InputRecorder one tick at a time, so
+ * that a recorded session can be played through a game again, e.g. with
+ * HeadlessRunner.replay().
+ */
+public class InputReplay {
+
+	private DataInputStream in;		// The log being read
+	private long seed;				// The random seed the recorded game used
+
+	private long elapsed;			// Elapsed time of the current tick
+	private int count;				// Number of events in the current tick
+	private long [] events;			// Events of the current tick
+
+	/**
+	 * Opens a log and reads its header.
+	 *
+	 * @param fileName The file to replay
+	 * @throws IOException If the file cannot be read or is not an input log
+	 */
+	public InputReplay(String fileName) throws IOException
+	{
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		if (in.readInt() != InputRecorder.MAGIC)
+		{
+			in.close();
+			throw new IOException("'" + fileName + "' is not an input recording");
+		}
+		int version = in.readShort();
+		if (version != InputRecorder.VERSION)
+		{
+			in.close();
+			throw new IOException("Unsupported input recording version " + version);
+		}
+		seed = in.readLong();
+		events = new long[16];
+	}
+
+	/**
+	 * @return The random seed the recorded game used
+	 */
+	public long getSeed() { return seed; }
+
+	/**
+	 * Moves on to the next recorded tick.
+	 *
+	 * @return false when there are no more ticks
+	 * @throws IOException If the log cannot be read or is cut short part way through a tick
+	 */
+	public boolean next() throws IOException
+	{
+		int first = in.read();
+		if (first < 0) return false;
+		elapsed = readVarLong(first);
+		count = (int)readVarLong(in.readUnsignedByte());
+		if (count > events.length) events = new long[Math.max(count, events.length * 2)];
+		for (int i=0; i<count; i++) events[i] = in.readLong();
+		return true;
+	}
+
+	/**
+	 * @return The elapsed time of the current tick in milliseconds
+	 */
+	public long getElapsed() { return elapsed; }
+
+	/**
+	 * @return The number of input events in the current tick
+	 */
+	public int getEventCount() { return count; }
+
+	/**
+	 * @param i The index of an event in the current tick
+	 * @return The packed event (see InputQueue)
+	 */
+	public long getEvent(int i) { return events[i]; }
+
+	/**
+	 * Closes the log.
+	 */
+	public void close()
+	{
+		try { in.close(); } catch (IOException e) { }
+	}
+
+	/**
+	 * Reads a variable length integer whose first byte has already been read.
+	 */
+	private long readVarLong(int b) throws IOException
+	{
+		long v = 0;
+		int shift = 0;
+		while ((b & 0x80) != 0)
+		{
+			v |= (long)(b & 0x7F) << shift;
+			shift += 7;
+			b = in.read();
+			if (b < 0) throw new EOFException("Input recording ends part way through a tick");
+		}
+		return v | ((long)b << shift);
+	}
+}
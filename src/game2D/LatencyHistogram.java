@@ -0,0 +1,119 @@
+package game2D;
+
+/**
+ * A fixed size histogram of latencies in nanoseconds, in the style of an
+ * HDR histogram. Values are grouped into buckets whose width doubles every
+ * power of two, with 16 buckets per power of two, so any recorded value is
+ * reported to within about 6% while the whole range from 1ns to over a
+ * minute fits in a few hundred counters.
+ *
+ * All storage is allocated up front so recording never allocates.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;					// 32 linear buckets before the log scale starts
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+	private static final int MAX_SHIFT = 40;				// Values of 2^45ns (nearly 10 hours) and over are clamped
+
+	private long [] counts;		// The number of values recorded in each bucket
+	private long count;			// Total number of values recorded
+	private long max;			// The largest value recorded
+	private long total;			// The sum of all values recorded
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram()
+	{
+		counts = new long[SUB_COUNT + MAX_SHIFT * HALF_COUNT];
+	}
+
+	/**
+	 * Records a single latency.
+	 *
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0) nanos = 0;
+		counts[indexOf(nanos)]++;
+		count++;
+		total += nanos;
+		if (nanos > max) max = nanos;
+	}
+
+	/**
+	 * Empties the histogram.
+	 */
+	public void reset()
+	{
+		for (int i=0; i<counts.length; i++) counts[i] = 0;
+		count = 0;
+		max = 0;
+		total = 0;
+	}
+
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount() { return count; }
+
+	/**
+	 * @return The largest value recorded in nanoseconds
+	 */
+	public long getMax() { return max; }
+
+	/**
+	 * @return The mean of the values recorded in nanoseconds
+	 */
+	public long getMean()
+	{
+		if (count == 0) return 0;
+		return total / count;
+	}
+
+	/**
+	 * Gets the value below which the given percentage of recorded values fall.
+	 * The result is the top of the bucket the value was recorded in, but is
+	 * never more than the largest value actually recorded.
+	 *
+	 * @param percentile The percentile to find, between 0 and 100
+	 * @return The value at that percentile in nanoseconds, 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		if (count == 0) return 0;
+		long target = (long)Math.ceil(count * percentile / 100.0);
+		if (target < 1) target = 1;
+		long seen = 0;
+		for (int i=0; i<counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= target) return Math.min(highestValueAt(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Works out which bucket a value belongs in.
+	 */
+	private static int indexOf(long v)
+	{
+		if (v < SUB_COUNT) return (int)v;
+		int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+		if (shift > MAX_SHIFT) return SUB_COUNT + MAX_SHIFT * HALF_COUNT - 1;
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (int)((v >>> shift) - HALF_COUNT);
+	}
+
+	/**
+	 * The largest value that would be recorded in bucket 'i'.
+	 */
+	private static long highestValueAt(int i)
+	{
+		if (i < SUB_COUNT) return i;
+		int shift = (i - SUB_COUNT) / HALF_COUNT + 1;
+		long sub = (i - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
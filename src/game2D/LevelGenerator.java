@@ -0,0 +1,157 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates an endless level of floating islands, one chunk at a time, for
+ * a StreamingTileMap. Each chunk has a ground row along the bottom and two
+ * tiers of islands built from the 'l', 'm' and 'r' tiles, with coins above
+ * the islands and scattered through the air, and a spawn point for an
+ * enemy on the ground.
+ *
+ * Every chunk is worked out from the seed and its own index alone, so a
+ * chunk comes out the same whichever order the chunks are generated in and
+ * on whichever thread. The same seed always gives the same level.
+ */
+public class LevelGenerator implements ChunkSource {
+
+	/**
+	 * Told where a chunk's coins and enemies should go.
+	 */
+	public interface SpawnListener {
+		/**
+		 * @param x The column of an empty tile that should hold a coin
+		 * @param y The row of the tile
+		 */
+		void coin(int x, int y);
+
+		/**
+		 * @param x The column of the empty tile above the ground where an enemy should start
+		 * @param y The row of the tile
+		 */
+		void enemy(int x, int y);
+	}
+
+	public static final int CHUNK_WIDTH = 32;	// Width of a chunk in tiles
+	public static final int HEIGHT = 12;		// Height of the level in tiles
+	public static final int TILE_SIZE = 32;		// Width and height of a tile in pixels
+
+	private static final String TILES = "2lmr";	// Ground, then the left, middle and right of an island
+	private static final String [] IMAGES = { "ground.png", "left.png", "middle.png", "right.png" };
+	private static final int LOW_TIER = 7;		// Top row the low islands may sit on
+	private static final int HIGH_TIER = 4;		// Top row the high islands may sit on
+	private static final int START_CLEAR = 8;	// Columns kept clear of low islands where the player starts
+
+	private long seed;				// Seed the whole level is generated from
+	private String folder;			// The folder holding the tile images, or null for none
+	private char [] scratch = new char[CHUNK_WIDTH * HEIGHT];	// Used by spawns()
+
+	/**
+	 * Creates a generator for the level given by 'seed'.
+	 *
+	 * @param seed The seed of the level
+	 * @param folder The folder holding the tile images, or null to generate tiles without images
+	 */
+	public LevelGenerator(long seed, String folder)
+	{
+		this.seed = seed;
+		this.folder = folder;
+	}
+
+	public int getChunkWidth() { return CHUNK_WIDTH; }
+
+	/**
+	 * @return The width of the level in tiles, as wide as the map's pixel coordinates allow
+	 */
+	public int getMapWidth() { return (Integer.MAX_VALUE / TILE_SIZE / CHUNK_WIDTH) * CHUNK_WIDTH; }
+
+	public int getMapHeight() { return HEIGHT; }
+
+	public int getTileWidth() { return TILE_SIZE; }
+
+	public int getTileHeight() { return TILE_SIZE; }
+
+	public String getTileCharacters() { return folder != null ? TILES : ""; }
+
+	public Image loadTileImage(char ch) throws IOException
+	{
+		int i = TILES.indexOf(ch);
+		if (folder == null || i < 0) return null;
+		return ImageIO.read(new File(folder, IMAGES[i]));
+	}
+
+	public void loadChunk(int index, char [] into)
+	{
+		generate(index, into, null);
+	}
+
+	/**
+	 * Reports where chunk 'index' wants its coins and enemies. This does
+	 * not need the chunk's tiles, so it can be called as soon as the chunk
+	 * comes into range. Only call it from one thread.
+	 *
+	 * @param index The chunk, from 0
+	 * @param listener Told each coin and enemy position, in map tiles
+	 */
+	public void spawns(int index, SpawnListener listener)
+	{
+		generate(index, scratch, listener);
+	}
+
+	/**
+	 * Generates chunk 'index' into 'into', row by row, telling 'listener'
+	 * (if not null) where its coins and enemies go.
+	 */
+	private void generate(int index, char [] into, SpawnListener listener)
+	{
+		SplittableRandom random = new SplittableRandom(seed ^ (index * 0x9E3779B97F4A7C15L));
+		int left = index * CHUNK_WIDTH;
+
+		Arrays.fill(into, 0, CHUNK_WIDTH * HEIGHT, '.');
+		Arrays.fill(into, (HEIGHT - 1) * CHUNK_WIDTH, HEIGHT * CHUNK_WIDTH, '2');
+
+		islands(random, into, LOW_TIER, index == 0 ? START_CLEAR : 0, left, listener);
+		islands(random, into, HIGH_TIER, 0, left, listener);
+
+		// A few coins in the open air
+		for (int i=0; i<3; i++)
+		{
+			int x = random.nextInt(CHUNK_WIDTH);
+			int y = 1 + random.nextInt(HEIGHT - 3);
+			if (listener != null && into[y * CHUNK_WIDTH + x] == '.') listener.coin(left + x, y);
+		}
+
+		// The first chunk is where the player starts, so has no enemy
+		int enemyX = 1 + random.nextInt(CHUNK_WIDTH - 2);
+		if (listener != null && index > 0) listener.enemy(left + enemyX, HEIGHT - 2);
+	}
+
+	/**
+	 * Lays a row of islands across the chunk, each on row 'tier' or the row
+	 * below it, with a coin above the middle of each. The last column is
+	 * always left empty so islands never join up with the next chunk's.
+	 */
+	private static void islands(SplittableRandom random, char [] into, int tier, int start, int left, SpawnListener listener)
+	{
+		int x = start + 1 + random.nextInt(6);
+		while (true)
+		{
+			int length = 2 + random.nextInt(5);
+			int y = tier + random.nextInt(2);
+			if (x + length > CHUNK_WIDTH - 1) return;
+
+			int row = y * CHUNK_WIDTH;
+			into[row + x] = 'l';
+			Arrays.fill(into, row + x + 1, row + x + length - 1, 'm');
+			into[row + x + length - 1] = 'r';
+			if (listener != null) listener.coin(left + x + length / 2, y - 1);
+
+			x += length + 3 + random.nextInt(8);
+		}
+	}
+}
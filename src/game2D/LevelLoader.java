@@ -0,0 +1,137 @@
+package game2D;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads tile maps on a background thread so that a game can start reading
+ * the next level, and decoding its tile images, while the current level is
+ * still being played. When the level changes, take() hands over the map
+ * ready to use, so the switch costs no more than swapping a reference.
+ *
+ * Several maps can be preloaded at once, e.g. the current level's again
+ * for a restart as well as the next level's. Each preloaded map can be
+ * taken once. Asking for a map that was not preloaded loads it on the
+ * calling thread instead, as TileMap.loadMap() would.
+ */
+public class LevelLoader {
+
+	private ExecutorService loader;		// The background loading thread
+	private String solidChars;			// Solid tile characters for every map loaded, or null
+
+	// The maps preloaded and not yet taken, by their folder and file name
+	private HashMap<String, Future<TileMap>> pending = new HashMap<String, Future<TileMap>>();
+
+	/**
+	 * Creates a loader with its own background thread.
+	 */
+	public LevelLoader()
+	{
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Level loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Sets the solid tile characters of every map loaded from now on.
+	 *
+	 * @param chars The characters of the solid tiles, or null to leave them unset
+	 */
+	public void setSolidCharacters(String chars)
+	{
+		solidChars = chars;
+	}
+
+	/**
+	 * Starts loading 'mapfile' in the background, unless it has already
+	 * been preloaded and not taken.
+	 *
+	 * @param folder The folder the tile map and images are located in
+	 * @param mapfile The name of the map file in the map folder
+	 */
+	public synchronized void preload(final String folder, final String mapfile)
+	{
+		String key = folder + "/" + mapfile;
+		if (pending.containsKey(key)) return;
+		pending.put(key, loader.submit(new Callable<TileMap>() {
+			public TileMap call()
+			{
+				return load(folder, mapfile);
+			}
+		}));
+	}
+
+	/**
+	 * Gets a loaded map, waiting for it to finish if it was preloaded and is
+	 * still loading, or loading it on this thread if it was not preloaded.
+	 *
+	 * @param folder The folder the tile map and images are located in
+	 * @param mapfile The name of the map file in the map folder
+	 * @return The map, or null if it failed to load
+	 */
+	public TileMap take(String folder, String mapfile)
+	{
+		Future<TileMap> ready;
+		synchronized (this)
+		{
+			ready = pending.remove(folder + "/" + mapfile);
+		}
+		if (ready != null)
+		{
+			try
+			{
+				return ready.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e)
+			{
+				System.err.println("Failed to preload tile map '" + folder + "/" + mapfile + "':" + e.getCause());
+			}
+		}
+		return load(folder, mapfile);
+	}
+
+	/**
+	 * @param folder The folder the tile map is located in
+	 * @param mapfile The name of the map file in the map folder
+	 * @return True if 'mapfile' has been preloaded and is ready to take without waiting
+	 */
+	public synchronized boolean isReady(String folder, String mapfile)
+	{
+		Future<TileMap> ready = pending.get(folder + "/" + mapfile);
+		return ready != null && ready.isDone();
+	}
+
+	/**
+	 * Stops the background thread, abandoning any maps being preloaded.
+	 */
+	public synchronized void close()
+	{
+		pending.clear();
+		loader.shutdownNow();
+	}
+
+	/**
+	 * Loads a map into a new TileMap.
+	 */
+	private TileMap load(String folder, String mapfile)
+	{
+		TileMap map = new TileMap();
+		if (solidChars != null) map.setSolidCharacters(solidChars);
+		if (!map.loadMap(folder, mapfile)) return null;
+		return map;
+	}
+}
@@ -0,0 +1,165 @@
+package game2D;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts a text tile map into the compiled binary format, which
+ * TileMap.loadMap() loads through a memory mapped file when the map name
+ * ends in ".tmb". The format is:
+ *
+ * <pre>
+ * int    magic 'DJTM'
+ * short  version
+ * short  flags, bit 0 set if collision data follows the cells
+ * int    map width and height in tiles, then tile width and height in pixels
+ * short  number of tile ids, then for each id:
+ *        char   the tile character
+ *        short  length of the image file name in bytes, then the UTF-8 name (empty for none)
+ *               or, for an animated tile, "sheet frames milliseconds" as in a text map
+ * short  number of solid characters, then each character, if collision data is flagged
+ * byte   one tile id per cell, row by row
+ * long   collision data, one bit per cell row by row, if flagged
+ * </pre>
+ *
+ * All values are big endian. Run it with:
+ *
+ * <pre>
+ * java game2D.MapCompiler maps/map.txt [maps/map.tmb] [solid characters]
+ * </pre>
+ */
+public class MapCompiler {
+
+	public static final String EXTENSION = ".tmb";	// File name ending of compiled maps
+
+	static final int MAGIC = 0x444A544D;	// 'DJTM'
+	static final int VERSION = 3;			// 2 allows animated tiles, 3 stores the solid characters
+	static final int HAS_COLLISION = 1;		// Flag set when collision data is included
+
+	/**
+	 * Compiles the text map given on the command line.
+	 *
+	 * @param args The text map, optionally the file to write and the characters of solid tiles
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: java game2D.MapCompiler map.txt [map" + EXTENSION + "] [solid characters]");
+			System.exit(1);
+		}
+		File in = new File(args[0]);
+		String out = args.length > 1 ? args[1] : args[0].replaceFirst("\\.[^./\\\\]*$", "") + EXTENSION;
+		String solid = args.length > 2 ? args[2] : null;
+
+		TileMap map = new TileMap();
+		String folder = in.getParent() != null ? in.getParent() : ".";
+		if (!map.loadMap(folder, in.getName())) System.exit(1);
+		try
+		{
+			compile(map, out, solid);
+			System.out.println("Wrote " + out + " (" + new File(out).length() + " bytes)");
+		}
+		catch (IOException e)
+		{
+			System.err.println("Failed to write '" + out + "': " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes 'map' to 'fileName' in the compiled format. The images are
+	 * referred to by the names they were loaded from, so the compiled map
+	 * should be kept in the same folder as the original.
+	 *
+	 * @param map The map to write
+	 * @param fileName The file to write to
+	 * @param solidChars The characters of the tiles that are solid, or null to leave out collision data
+	 * @throws IOException If the file could not be written or the map uses more than 256 tile characters
+	 */
+	public static void compile(TileMap map, String fileName, String solidChars) throws IOException
+	{
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+
+		// Give every character used, or with an image, a tile id
+		int [] ids = new int[Character.MAX_VALUE + 1];
+		char [] chars = new char[256];
+		int count = 0;
+		for (int c=0; c<=Character.MAX_VALUE; c++)
+		{
+			if (map.getTileImageName((char)c) != null) count = addId((char)c, ids, chars, count);
+		}
+		for (int y=0; y<height; y++)
+		{
+			for (int x=0; x<width; x++)
+			{
+				char c = map.getTileChar(x, y);
+				if (ids[c] == 0) count = addId(c, ids, chars, count);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(solidChars != null ? HAS_COLLISION : 0);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(map.getTileWidth());
+			out.writeInt(map.getTileHeight());
+
+			out.writeShort(count);
+			for (int i=0; i<count; i++)
+			{
+				String name = map.getTileImageName(chars[i]);
+				byte [] bytes = (name != null ? name : "").getBytes(StandardCharsets.UTF_8);
+				out.writeChar(chars[i]);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+
+			if (solidChars != null)
+			{
+				out.writeShort(solidChars.length());
+				out.writeChars(solidChars);
+			}
+
+			for (int y=0; y<height; y++)
+				for (int x=0; x<width; x++)
+					out.writeByte(ids[map.getTileChar(x, y)] - 1);
+
+			if (solidChars != null)
+			{
+				long [] bits = new long[(width * height + 63) / 64];
+				for (int i=0; i<width * height; i++)
+				{
+					if (solidChars.indexOf(map.getTileChar(i % width, i / width)) >= 0)
+						bits[i >> 6] |= 1L << i;
+				}
+				for (int i=0; i<bits.length; i++) out.writeLong(bits[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Gives character 'c' the next tile id. Ids are stored one higher in
+	 * 'ids' so that 0 can mean no id yet.
+	 */
+	private static int addId(char c, int [] ids, char [] chars, int count) throws IOException
+	{
+		if (count == chars.length) throw new IOException("A compiled map can only use " + chars.length + " tile characters");
+		chars[count] = c;
+		ids[c] = count + 1;
+		return count + 1;
+	}
+}
@@ -0,0 +1,115 @@
+package game2D;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps objects that are finished with so they can be handed out again
+ * instead of making new ones, e.g. the coins and enemies of a level, which
+ * are all replaced each time the level restarts. Once the pool has made as
+ * many objects as are ever in use at once, acquiring and releasing them
+ * allocates nothing.
+ *
+ * The pool does not reset the objects it hands out; whoever acquires one
+ * sets it up for its new use. A pool should only be used from one thread.
+ */
+public class Pool<T> {
+
+	/**
+	 * Makes a new object when the pool has none free.
+	 */
+	public interface Factory<T> {
+		T create();
+	}
+
+	private Factory<T> factory;		// Makes new objects
+	private ArrayList<T> free;		// Objects released and not yet handed out again
+	private int live;				// Objects handed out and not yet released
+	private int highWater;			// The most objects that have been live at once
+	private int created;			// The number of objects the factory has made
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param factory Makes new objects when the pool has none free
+	 */
+	public Pool(Factory<T> factory)
+	{
+		this.factory = factory;
+		free = new ArrayList<T>();
+	}
+
+	/**
+	 * Makes objects until there are 'count' free, so that many can be
+	 * acquired without making any more.
+	 *
+	 * @param count The number of free objects wanted
+	 */
+	public void reserve(int count)
+	{
+		free.ensureCapacity(count);
+		while (free.size() < count)
+		{
+			free.add(factory.create());
+			created++;
+		}
+	}
+
+	/**
+	 * Hands out a free object, making a new one if there are none.
+	 *
+	 * @return The object, which must be given back with release() once finished with
+	 */
+	public T acquire()
+	{
+		T item;
+		if (free.isEmpty())
+		{
+			item = factory.create();
+			created++;
+		}
+		else
+			item = free.remove(free.size() - 1);
+		live++;
+		if (live > highWater) highWater = live;
+		return item;
+	}
+
+	/**
+	 * Gives back an object from acquire() so it can be handed out again.
+	 *
+	 * @param item The object, which must not be used again until it is acquired again
+	 */
+	public void release(T item)
+	{
+		free.add(item);
+		live--;
+	}
+
+	/**
+	 * @return The number of objects handed out and not yet released
+	 */
+	public int getLive() { return live; }
+
+	/**
+	 * @return The number of objects waiting to be handed out again
+	 */
+	public int getFree() { return free.size(); }
+
+	/**
+	 * @return The most objects that have been handed out at once
+	 */
+	public int getHighWater() { return highWater; }
+
+	/**
+	 * @return The number of objects the pool has made
+	 */
+	public int getCreated() { return created; }
+
+	/**
+	 * @return A one line summary of the pool's use
+	 */
+	public String toString()
+	{
+		return live + " live, " + free.size() + " free, " + highWater + " high water, " + created + " created";
+	}
+}
@@ -0,0 +1,223 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * A RenderList is a copy of everything needed to draw a set of sprites,
+ * taken at one moment in time. Once filled it does not refer back to the
+ * sprites, so it can be drawn on one thread while the sprites carry on
+ * being updated on another.
+ *
+ * The state is held in parallel arrays that grow as needed and are reused
+ * when the list is cleared, so filling a list each tick does not allocate
+ * once it has reached its working size.
+ */
+public class RenderList {
+
+	private int size;				// Number of sprites in the list
+
+	private Image [] image = new Image[0];		// Image each sprite was showing
+	private float [] x = new float[0];			// Position (pixels)
+	private float [] y = new float[0];
+	private int [] xoff = new int[0];			// Draw offsets
+	private int [] yoff = new int[0];
+	private double [] xscale = new double[0];	// Scaling
+	private double [] yscale = new double[0];
+	private double [] rotation = new double[0];	// Rotation in radians
+	private int [] flag = new int[0];			// A value chosen by the caller, e.g. to mark dead enemies
+
+	private AffineTransform transform = new AffineTransform();	// Reused when drawing
+
+	/**
+	 * Creates an empty list with room for 16 sprites.
+	 */
+	public RenderList()
+	{
+		allocate(16);
+	}
+
+	/**
+	 * Empties the list, keeping its storage.
+	 */
+	public void clear()
+	{
+		for (int i=0; i<size; i++) image[i] = null;
+		size = 0;
+	}
+
+	/**
+	 * @return The number of sprites in the list
+	 */
+	public int size() { return size; }
+
+	/**
+	 * Adds the current state of a sprite to the list. Hidden sprites
+	 * are skipped.
+	 *
+	 * @param s The sprite to add
+	 */
+	public void add(Sprite s) { add(s, 0); }
+
+	/**
+	 * Adds the current state of a sprite to the list along with a
+	 * caller defined flag. Hidden sprites are skipped.
+	 *
+	 * @param s The sprite to add
+	 * @param f The flag to store with it
+	 */
+	public void add(Sprite s, int f)
+	{
+		if (!s.isVisible()) return;
+		Image img = s.getImage();
+		if (img == null) return;
+		if (size == image.length) allocate(size * 2);
+
+		image[size] = img;
+		x[size] = s.getX();
+		y[size] = s.getY();
+		xoff[size] = s.getOffsetX();
+		yoff[size] = s.getOffsetY();
+		xscale[size] = s.getScaleX();
+		yscale[size] = s.getScaleY();
+		rotation[size] = Math.toRadians(s.getRotation());
+		flag[size] = f;
+		size++;
+	}
+
+	/**
+	 * @param i The index of a sprite in the list
+	 * @return Its x position in pixels
+	 */
+	public float getX(int i) { return x[i]; }
+
+	/**
+	 * @param i The index of a sprite in the list
+	 * @return Its y position in pixels
+	 */
+	public float getY(int i) { return y[i]; }
+
+	/**
+	 * @param i The index of a sprite in the list
+	 * @return The width of its image in pixels, without scaling
+	 */
+	public int getImageWidth(int i) { return image[i].getWidth(null); }
+
+	/**
+	 * @param i The index of a sprite in the list
+	 * @return The height of its image in pixels, without scaling
+	 */
+	public int getImageHeight(int i) { return image[i].getHeight(null); }
+
+	/**
+	 * @param i The index of a sprite in the list
+	 * @return The flag it was added with
+	 */
+	public int getFlag(int i) { return flag[i]; }
+
+	/**
+	 * Draws every sprite in the list with scaling and rotation applied,
+	 * in the order they were added.
+	 *
+	 * @param g The graphics object to draw to
+	 */
+	public void draw(Graphics2D g)
+	{
+		for (int i=0; i<size; i++) draw(g, i);
+	}
+
+	/**
+	 * Draws sprite 'i' the same way as Sprite.drawTransformed.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param i The index of the sprite to draw
+	 */
+	public void draw(Graphics2D g, int i)
+	{
+		Image img = image[i];
+		int w = img.getWidth(null);
+		int h = img.getHeight(null);
+
+		// Shift left and up when flipped so x,y is still the top left
+		float shiftx = 0;
+		float shifty = 0;
+		if (xscale[i] < 0) shiftx = (int)(w * Math.abs(xscale[i]));
+		if (yscale[i] < 0) shifty = (int)(h * Math.abs(yscale[i]));
+
+		transform.setToIdentity();
+		transform.translate(Math.round(x[i])+shiftx+xoff[i], Math.round(y[i])+shifty+yoff[i]);
+		transform.scale(xscale[i], yscale[i]);
+		transform.rotate(rotation[i], w/2, h/2);
+		g.drawImage(img, transform, null);
+	}
+
+	/**
+	 * Draws the bounding box of sprite 'i' like Sprite.drawBoundingBox.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param i The index of the sprite
+	 */
+	public void drawBoundingBox(Graphics2D g, int i)
+	{
+		g.drawRect((int)x[i], (int)y[i], getImageWidth(i), getImageHeight(i));
+	}
+
+	/**
+	 * Draws the bounding circle of sprite 'i' like Sprite.drawBoundingCircle.
+	 *
+	 * @param g The graphics object to draw to
+	 * @param i The index of the sprite
+	 */
+	public void drawBoundingCircle(Graphics2D g, int i)
+	{
+		g.drawArc((int)x[i], (int)y[i], getImageWidth(i), getImageHeight(i), 0, 360);
+	}
+
+	/**
+	 * Marks the area covered by every sprite in the list as dirty. Rotated
+	 * sprites are given an area large enough for any angle.
+	 *
+	 * @param regions Where to mark the areas
+	 */
+	public void addBounds(DirtyRegions regions)
+	{
+		for (int i=0; i<size; i++)
+		{
+			int w = image[i].getWidth(null);
+			int h = image[i].getHeight(null);
+			double sw = w * Math.abs(xscale[i]);
+			double sh = h * Math.abs(yscale[i]);
+			double left = Math.round(x[i]) + xoff[i];
+			double top = Math.round(y[i]) + yoff[i];
+			if (rotation[i] != 0)
+			{
+				// The image rotates about its centre, so it stays within its diagonal
+				double diagonal = Math.sqrt((double)w*w + (double)h*h);
+				left += (sw - Math.abs(xscale[i]) * diagonal) / 2;
+				top += (sh - Math.abs(yscale[i]) * diagonal) / 2;
+				sw = Math.abs(xscale[i]) * diagonal;
+				sh = Math.abs(yscale[i]) * diagonal;
+			}
+			// Allow a pixel either side for rounding when drawn
+			regions.add((int)Math.floor(left) - 1, (int)Math.floor(top) - 1, (int)Math.ceil(sw) + 3, (int)Math.ceil(sh) + 3);
+		}
+	}
+
+	/**
+	 * Grows the arrays to hold 'capacity' sprites.
+	 */
+	private void allocate(int capacity)
+	{
+		image = Arrays.copyOf(image, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		xoff = Arrays.copyOf(xoff, capacity);
+		yoff = Arrays.copyOf(yoff, capacity);
+		xscale = Arrays.copyOf(xscale, capacity);
+		yscale = Arrays.copyOf(yscale, capacity);
+		rotation = Arrays.copyOf(rotation, capacity);
+		flag = Arrays.copyOf(flag, capacity);
+	}
+}
@@ -56,6 +56,70 @@ public class ScreenManager {
     }
 
 
+    /**
+        Returns the best display mode for showing a screen of the
+        given size. The smallest mode that is at least as large as
+        the given size is chosen and, among modes of that size, the
+        one with the highest refresh rate and then bit depth.
+        Returns null if no mode is large enough.
+    */
+    public DisplayMode findBestDisplayMode(int width, int height)
+    {
+        DisplayMode best = null;
+        DisplayMode modes[] = device.getDisplayModes();
+        for (int i = 0; i < modes.length; i++) {
+            DisplayMode mode = modes[i];
+            if (mode.getWidth() < width || mode.getHeight() < height) {
+                continue;
+            }
+            if (best == null || isBetterMode(mode, best)) {
+                best = mode;
+            }
+        }
+        return best;
+    }
+
+
+    /**
+        Returns true if 'mode' should be preferred over 'other'
+        when looking for the best display mode.
+    */
+    private boolean isBetterMode(DisplayMode mode, DisplayMode other)
+    {
+        long area = (long)mode.getWidth() * mode.getHeight();
+        long otherArea = (long)other.getWidth() * other.getHeight();
+        if (area != otherArea) {
+            return area < otherArea;
+        }
+        if (mode.getRefreshRate() != other.getRefreshRate()) {
+            return mode.getRefreshRate() > other.getRefreshRate();
+        }
+        return mode.getBitDepth() > other.getBitDepth();
+    }
+
+
+    /**
+        Returns true if the default device supports exclusive
+        full screen mode.
+    */
+    public boolean isFullScreenSupported() {
+        return device.isFullScreenSupported();
+    }
+
+
+    /**
+        Returns the refresh rate of the current display mode in
+        hertz, or 0 if it is not known.
+    */
+    public int getRefreshRate() {
+        int rate = device.getDisplayMode().getRefreshRate();
+        if (rate == DisplayMode.REFRESH_RATE_UNKNOWN) {
+            return 0;
+        }
+        return rate;
+    }
+
+
     /**
      *  Returns the current display mode.
      */
@@ -114,6 +178,19 @@ public class ScreenManager {
     public void setFullScreen(DisplayMode displayMode) {
         final JFrame frame = new JFrame();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setFullScreen(displayMode, frame, 2);
+    }
+
+
+    /**
+        Enters full screen mode with an existing frame and changes
+        the display mode as above. The frame must not be showing
+        yet, as it is made undecorated. The display uses a
+        BufferStrategy with the given number of buffers.
+    */
+    public void setFullScreen(DisplayMode displayMode, final JFrame frame,
+        final int buffers)
+    {
         frame.setUndecorated(true);
         frame.setIgnoreRepaint(true);
         frame.setResizable(false);
@@ -135,7 +212,7 @@ public class ScreenManager {
         try {
             EventQueue.invokeAndWait(new Runnable() {
                 public void run() {
-                    frame.createBufferStrategy(2);
+                    frame.createBufferStrategy(buffers);
                 }
             });
         }
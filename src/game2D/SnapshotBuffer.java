@@ -0,0 +1,72 @@
+package game2D;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock free triple buffer for handing snapshots of the game from the
+ * thread that updates it to the thread that draws it.
+ *
+ * The writer fills the buffer returned by getWriteBuffer() and then calls
+ * publish(). The reader calls acquire() to get the most recently published
+ * snapshot, which it can keep using until its next call to acquire(). Each
+ * side always has a buffer to itself, so neither ever waits for the other,
+ * and a reader that falls behind simply skips the snapshots it missed.
+ *
+ * Only one thread may write and only one thread may read.
+ *
+ * @param <T> The type of snapshot held
+ */
+public class SnapshotBuffer<T> {
+
+	private static final int FRESH = 4;		// Set in 'ready' when the middle buffer has not been read
+
+	private Object [] buffers;		// The three buffers
+	private AtomicInteger ready;	// Index of the buffer waiting between writer and reader, plus FRESH
+	private int back;				// Index of the buffer the writer is filling
+	private int front;				// Index of the buffer the reader is using
+
+	/**
+	 * Creates a triple buffer from three separate snapshot objects.
+	 * The reader starts with 'a'.
+	 *
+	 * @param a The first buffer
+	 * @param b The second buffer
+	 * @param c The third buffer
+	 */
+	public SnapshotBuffer(T a, T b, T c)
+	{
+		buffers = new Object[] { a, b, c };
+		front = 0;
+		ready = new AtomicInteger(1);
+		back = 2;
+	}
+
+	/**
+	 * @return The buffer the writer should fill next
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteBuffer() { return (T)buffers[back]; }
+
+	/**
+	 * Makes the buffer that has just been filled available to the reader.
+	 * Called by the writer.
+	 */
+	public void publish()
+	{
+		back = ready.getAndSet(back | FRESH) & 3;
+	}
+
+	/**
+	 * Gets the latest published snapshot, or the same one as last time if
+	 * nothing new has been published. Called by the reader.
+	 *
+	 * @return The latest snapshot
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire()
+	{
+		if ((ready.get() & FRESH) != 0)
+			front = ready.getAndSet(front) & 3;
+		return (T)buffers[front];
+	}
+}
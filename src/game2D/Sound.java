@@ -1,6 +1,5 @@
 package game2D;
 
-import java.io.*;
 import javax.sound.sampled.*;
 
 public class Sound extends Thread
@@ -42,24 +41,24 @@ public class Sound extends Thread
 	 * called by 'start' when it has been scheduled by the process scheduler.
 	 */
 	public void run(){
+		AssetCache cache = AssetCache.getShared();
+		AssetCache.Pcm pcm = null;
 		try{
-			File file = new File(filename);
-			AudioInputStream stream = AudioSystem.getAudioInputStream(file);
-			AudioFormat format = stream.getFormat();
-			DataLine.Info info = new DataLine.Info(Clip.class, format);
+			// Nothing to play on, so don't decode the sound at all
+			if (!AudioSystem.isLineSupported(new Line.Info(Clip.class))) return;
+			// The samples are decoded once and shared, the wav effects faded out as they are
+			pcm = cache.acquireSound(filename, !filename.contains("mid"));
+			if (pcm == null) return;
+			DataLine.Info info = new DataLine.Info(Clip.class, pcm.format);
 			audio = (Clip) AudioSystem.getLine(info);
-			if (filename.contains("mid")){
-				audio.open(stream);
-				audio.start();
+			audio.open(pcm.format, pcm.data, 0, pcm.data.length);
+			audio.start();
+			if (filename.contains("mid"))
 				audio.loop(Clip.LOOP_CONTINUOUSLY);
-			}else{
-				FadeFilterStream filter = new FadeFilterStream(stream);
-				AudioInputStream sound = new AudioInputStream(filter, format, stream.getFrameLength());
-				audio.open(sound);
-				audio.start();
-			}
 		}catch (Exception e) {} 
 		finally{
+			// The clip has its own copy of the samples once it is open
+			if (pcm != null) cache.release(pcm);
 			this.finished = true;
 		}
 	}
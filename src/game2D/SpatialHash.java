@@ -0,0 +1,259 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * A broadphase for sprite collisions. Sprites are dropped into the cells
+ * of a uniform grid, usually the size of the map's tiles, and only sprites
+ * that share a cell are tested against each other, so the work done grows
+ * with the number of sprites near each other rather than with the square
+ * of the number of sprites.
+ *
+ * The grid is a hash table of cells, so it covers any area without having
+ * to size it to the map. The hash is filled afresh with add() after each
+ * clear(), and reuses its arrays, so once it has grown to the number of
+ * sprites in use it does not allocate.
+ *
+ * Sprites collide if their bounding boxes overlap, using the same box as
+ * java.awt.Rectangle.intersects() on the sprite's position and size, as
+ * taken when the sprite was added.
+ */
+public class SpatialHash {
+
+	/**
+	 * Told about each pair of sprites whose boxes overlap.
+	 */
+	public interface PairListener {
+		void pair(Sprite a, Sprite b);
+	}
+
+	/**
+	 * Told about each sprite whose box overlaps the area queried.
+	 */
+	public interface QueryListener {
+		void found(Sprite s);
+	}
+
+	private int cellWidth;			// Size of a grid cell in pixels
+	private int cellHeight;
+
+	// The sprites added and their boxes
+	private int count;
+	private Sprite [] sprites = new Sprite[16];
+	private int [] left = new int[16];
+	private int [] top = new int[16];
+	private int [] right = new int[16];		// One past the right edge
+	private int [] bottom = new int[16];	// One past the bottom edge
+
+	// One entry for each cell each sprite covers, chained by bucket
+	private int entries;
+	private int [] item = new int[32];		// The sprite of each entry
+	private int [] cellX = new int[32];		// The cell of each entry
+	private int [] cellY = new int[32];
+	private int [] next = new int[32];		// The next entry in the same bucket, or -1
+	private int [] buckets;					// The first entry in each bucket, or -1
+
+	/**
+	 * Creates an empty hash.
+	 *
+	 * @param cellWidth The width of a grid cell in pixels, e.g. the map's tile width
+	 * @param cellHeight The height of a grid cell in pixels
+	 */
+	public SpatialHash(int cellWidth, int cellHeight)
+	{
+		buckets = new int[64];
+		setCellSize(cellWidth, cellHeight);
+	}
+
+	/**
+	 * Changes the size of the grid cells, emptying the hash.
+	 *
+	 * @param cellWidth The width of a grid cell in pixels
+	 * @param cellHeight The height of a grid cell in pixels
+	 */
+	public void setCellSize(int cellWidth, int cellHeight)
+	{
+		this.cellWidth = Math.max(1, cellWidth);
+		this.cellHeight = Math.max(1, cellHeight);
+		clear();
+	}
+
+	/**
+	 * Removes every sprite from the hash.
+	 */
+	public void clear()
+	{
+		Arrays.fill(sprites, 0, count, null);
+		count = 0;
+		entries = 0;
+		Arrays.fill(buckets, -1);
+	}
+
+	/**
+	 * @return The number of sprites in the hash
+	 */
+	public int size() { return count; }
+
+	/**
+	 * Adds 's' to every cell its box covers. A sprite with no area is not
+	 * added, as it cannot overlap anything.
+	 *
+	 * @param s The sprite to add
+	 */
+	public void add(Sprite s)
+	{
+		int x = (int)s.getX();
+		int y = (int)s.getY();
+		int w = s.getWidth();
+		int h = s.getHeight();
+		if (w <= 0 || h <= 0) return;
+
+		if (count == sprites.length)
+		{
+			int size = count * 2;
+			sprites = Arrays.copyOf(sprites, size);
+			left = Arrays.copyOf(left, size);
+			top = Arrays.copyOf(top, size);
+			right = Arrays.copyOf(right, size);
+			bottom = Arrays.copyOf(bottom, size);
+		}
+		int i = count++;
+		sprites[i] = s;
+		left[i] = x;
+		top[i] = y;
+		right[i] = x + w;
+		bottom[i] = y + h;
+
+		int x1 = Math.floorDiv(x + w - 1, cellWidth);
+		int y1 = Math.floorDiv(y + h - 1, cellHeight);
+		for (int cy=Math.floorDiv(y, cellHeight); cy<=y1; cy++)
+			for (int cx=Math.floorDiv(x, cellWidth); cx<=x1; cx++)
+				insert(i, cx, cy);
+	}
+
+	/**
+	 * Tells 'listener' about each pair of sprites in the hash whose boxes
+	 * overlap, once per pair, in no particular order.
+	 *
+	 * @param listener Told about each overlapping pair
+	 */
+	public void findPairs(PairListener listener)
+	{
+		for (int e=0; e<entries; e++)
+		{
+			int a = item[e];
+			for (int f=next[e]; f>=0; f=next[f])
+			{
+				if (cellX[f] != cellX[e] || cellY[f] != cellY[e]) continue;
+				int b = item[f];
+				if (!overlaps(a, b)) continue;
+				// A pair sharing several cells is reported from the cell
+				// holding the top left corner of where they overlap
+				if (Math.floorDiv(Math.max(left[a], left[b]), cellWidth) != cellX[e]) continue;
+				if (Math.floorDiv(Math.max(top[a], top[b]), cellHeight) != cellY[e]) continue;
+				listener.pair(sprites[a], sprites[b]);
+			}
+		}
+	}
+
+	/**
+	 * Tells 'listener' about each sprite in the hash whose box overlaps
+	 * the given area, once each, in no particular order.
+	 *
+	 * @param x The left of the area in pixels
+	 * @param y The top of the area in pixels
+	 * @param w The width of the area in pixels
+	 * @param h The height of the area in pixels
+	 * @param listener Told about each sprite found
+	 */
+	public void query(int x, int y, int w, int h, QueryListener listener)
+	{
+		if (w <= 0 || h <= 0) return;
+		int x1 = Math.floorDiv(x + w - 1, cellWidth);
+		int y1 = Math.floorDiv(y + h - 1, cellHeight);
+		for (int cy=Math.floorDiv(y, cellHeight); cy<=y1; cy++)
+		{
+			for (int cx=Math.floorDiv(x, cellWidth); cx<=x1; cx++)
+			{
+				for (int e=buckets[hash(cx, cy)]; e>=0; e=next[e])
+				{
+					if (cellX[e] != cx || cellY[e] != cy) continue;
+					int i = item[e];
+					if (!overlaps(left[i], top[i], right[i], bottom[i], x, y, x + w, y + h)) continue;
+					if (Math.floorDiv(Math.max(left[i], x), cellWidth) != cx) continue;
+					if (Math.floorDiv(Math.max(top[i], y), cellHeight) != cy) continue;
+					listener.found(sprites[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests whether the boxes of two sprites overlap, without allocating.
+	 *
+	 * @param a The first sprite
+	 * @param b The second sprite
+	 * @return True if the sprites' boxes overlap
+	 */
+	public static boolean overlaps(Sprite a, Sprite b)
+	{
+		int ax = (int)a.getX(), ay = (int)a.getY(), aw = a.getWidth(), ah = a.getHeight();
+		int bx = (int)b.getX(), by = (int)b.getY(), bw = b.getWidth(), bh = b.getHeight();
+		if (aw <= 0 || ah <= 0 || bw <= 0 || bh <= 0) return false;
+		return overlaps(ax, ay, ax + aw, ay + ah, bx, by, bx + bw, by + bh);
+	}
+
+	private boolean overlaps(int a, int b)
+	{
+		return overlaps(left[a], top[a], right[a], bottom[a], left[b], top[b], right[b], bottom[b]);
+	}
+
+	private static boolean overlaps(int l1, int t1, int r1, int b1, int l2, int t2, int r2, int b2)
+	{
+		return l1 < r2 && l2 < r1 && t1 < b2 && t2 < b1;
+	}
+
+	/**
+	 * Adds an entry for sprite 'i' in cell 'cx,cy'.
+	 */
+	private void insert(int i, int cx, int cy)
+	{
+		if (entries == item.length)
+		{
+			int size = entries * 2;
+			item = Arrays.copyOf(item, size);
+			cellX = Arrays.copyOf(cellX, size);
+			cellY = Arrays.copyOf(cellY, size);
+			next = Arrays.copyOf(next, size);
+		}
+		if (entries >= buckets.length / 2) rehash(buckets.length * 2);
+		int e = entries++;
+		item[e] = i;
+		cellX[e] = cx;
+		cellY[e] = cy;
+		int b = hash(cx, cy);
+		next[e] = buckets[b];
+		buckets[b] = e;
+	}
+
+	/**
+	 * Spreads the entries over 'size' buckets, keeping the chains short.
+	 */
+	private void rehash(int size)
+	{
+		buckets = new int[size];
+		Arrays.fill(buckets, -1);
+		// Later entries go in front, as insert() would have put them
+		for (int e=0; e<entries; e++)
+		{
+			int b = hash(cellX[e], cellY[e]);
+			next[e] = buckets[b];
+			buckets[b] = e;
+		}
+	}
+
+	private int hash(int cx, int cy)
+	{
+		return ((cx * 73856093) ^ (cy * 19349663)) & (buckets.length - 1);
+	}
+}
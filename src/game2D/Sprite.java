@@ -7,41 +7,18 @@ import java.awt.geom.*;
 /**
  * This class provides the functionality for a moving animated image or Sprite.
  * 
+ * A Sprite is a handle onto one slot of an EntityStore, which holds the
+ * state of many sprites side by side so they can be updated in bulk. A
+ * sprite made without a store gets a store of its own.
+ * 
  * @author David Cairns
  *
  */
 public class Sprite {
 
-	// The current Animation to use for this sprite
-    private Animation anim;		
-
-    // Position (pixels)
-    private float x;
-    private float y;
-
-    // Velocity (pixels per millisecond)
-    private float dx;
-    private float dy;
-
-    // Dimensions of the sprite
-    private float height;
-    private float width;
-    private float radius;
-
-    // The scale to draw the sprite at where 1 equals normal size
-    private double xscale;
-    private double yscale;
-    
-    // The rotation to apply to the sprite image
-    private double rotation;
-
-    // If render is 'true', the sprite will be drawn when requested
-    private boolean render;
-    
-    // The draw offset associated with this sprite. Used to draw it
-    // relative to specific on screen position (usually the player)
-    private int xoff=0;
-    private int yoff=0;
+    // The store holding this sprite's state, and its slot there
+    private EntityStore store;
+    private int id;
 
     /**
      *  Creates a new Sprite object with the specified Animation.
@@ -51,11 +28,83 @@ public class Sprite {
      */
     public Sprite(Animation anim) 
     {
-        this.anim = anim;
-        render = true;
-        xscale = 1.0f;
-        yscale = 1.0f;
-        rotation = 0.0f;
+        this(new EntityStore(1), anim);
+    }
+
+    /**
+     *  Creates a new Sprite in 'store' with the specified Animation.
+     *  
+     * @param store The store to hold the sprite's state.
+     * @param anim The animation to use for the sprite.
+     * 
+     */
+    public Sprite(EntityStore store, Animation anim) 
+    {
+        this.store = store;
+        id = store.add(anim);
+    }
+
+    /**
+     *  Creates a new Sprite playing the frames of 'def'. The
+     *  definition can be shared with other sprites, as each sprite
+     *  keeps its own place in it.
+     *  
+     * @param def The frames to play.
+     */
+    public Sprite(AnimationDefinition def)
+    {
+        this(new EntityStore(1), def);
+    }
+
+    /**
+     *  Creates a new Sprite in 'store' playing the frames of 'def'.
+     *  
+     * @param store The store to hold the sprite's state.
+     * @param def The frames to play.
+     */
+    public Sprite(EntityStore store, AnimationDefinition def)
+    {
+        this(store, new Animation(def));
+        store.cursor[id] = store.anim[id];
+    }
+
+    /**
+     * Puts the sprite back as it was when made: visible at 0,0, not
+     * moving, unscaled and unrotated. The animation is kept, e.g. so
+     * a pooled sprite can be reused without making a new one.
+     */
+    public void reset()
+    {
+    	store.reset(id);
+    }
+
+    /**
+     * Puts the sprite back as it was when made with 'def', reusing
+     * its own Animation to play it from the first frame.
+     *
+     * @param def The frames to play.
+     */
+    public void reset(AnimationDefinition def)
+    {
+    	store.reset(id);
+    	Animation cursor = store.cursor[id];
+    	if (cursor == null)
+    	{
+    		setAnimation(def);
+    		return;
+    	}
+    	cursor.setDefinition(def);
+    	setAnimation(cursor);
+    }
+
+    /**
+     * Gives the sprite's slot back to its store. The sprite must not
+     * be used afterwards.
+     */
+    public void release()
+    {
+    	store.remove(id);
+    	store = null;
     }
 
     /**
@@ -65,7 +114,26 @@ public class Sprite {
      */
     public void setAnimation(Animation a)
     {
-    		anim = a;
+    		store.anim[id] = a;
+    		store.setVisible(id, store.visible[id]);
+    }
+    
+    /**
+     * Play the frames of 'def' on this sprite's own Animation,
+     * starting from the first frame. Nothing changes if the sprite
+     * is already playing 'def'.
+     *
+     * @param def The frames to play.
+     */
+    public void setAnimation(AnimationDefinition def)
+    {
+    	Animation cursor = store.cursor[id];
+    	if (store.anim[id] == cursor && cursor.getDefinition() == def) return;
+    	if (cursor == null)
+    		store.cursor[id] = cursor = new Animation(def);
+    	else
+    		cursor.setDefinition(def);
+    	setAnimation(cursor);
     }
     
     /**
@@ -75,7 +143,7 @@ public class Sprite {
      */
     public void setAnimationFrame(int frame)
     {
-    	anim.setAnimationFrame(frame);
+    	store.anim[id].setAnimationFrame(frame);
     }
     
     /**
@@ -84,7 +152,7 @@ public class Sprite {
      */
     public void pauseAnimation()
     {
-    	anim.pause();
+    	store.anim[id].pause();
     }
     
     /**
@@ -94,7 +162,7 @@ public class Sprite {
      */
     public void pauseAnimationAtFrame(int f)
     {
-    	anim.pauseAt(f);
+    	store.anim[id].pauseAt(f);
     }
     
     /**
@@ -109,7 +177,7 @@ public class Sprite {
      */
     public void setAnimationSpeed(float speed)
     {
-    	anim.setAnimationSpeed(speed);
+    	store.anim[id].setAnimationSpeed(speed);
     }
     
     /**
@@ -117,7 +185,7 @@ public class Sprite {
      */
     public void playAnimation()
     {
-    	anim.play();
+    	store.anim[id].play();
     }
     
     /**
@@ -128,7 +196,17 @@ public class Sprite {
      */
     public Animation getAnimation()
     {
-    	return anim;
+    	return store.anim[id];
+    }
+    
+    /**
+     * Returns the frames the sprite is currently playing.
+     * 
+     * @return The definition of the current animation
+     */
+    public AnimationDefinition getAnimationDefinition()
+    {
+    	return store.anim[id].getDefinition();
     }
 
     /**
@@ -139,16 +217,7 @@ public class Sprite {
     */
     public void update(long elapsedTime) 
     {
-    	if (!render) return;
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
-        anim.update(elapsedTime);
-        width = getWidth();
-        height = getHeight();
-        if (width > height)
-        	radius = width / 2.0f;
-        else
-        	radius = height / 2.0f;
+    	store.update(id, elapsedTime);
     }
 
     /**
@@ -156,7 +225,7 @@ public class Sprite {
     */
     public float getX() 
     {
-    	return x;
+    	return store.x[id];
     }
 
     /**
@@ -164,7 +233,7 @@ public class Sprite {
     */
     public float getY() 
     {
-    	return y;
+    	return store.y[id];
     }
 
     /**
@@ -172,7 +241,7 @@ public class Sprite {
     */
     public void setX(float x) 
     {
-    	this.x = x;
+    	store.x[id] = x;
     }
 
     /**
@@ -180,7 +249,7 @@ public class Sprite {
     */
     public void setY(float y) 
     {
-    	this.y = y;
+    	store.y[id] = y;
     }
 
     /**
@@ -194,12 +263,12 @@ public class Sprite {
 
     public void shiftX(float shift)
     {
-    	this.x += shift;
+    	store.x[id] += shift;
     }
     
     public void shiftY(float shift)
     {
-    	this.y += shift;
+    	store.y[id] += shift;
     }
     
     /**
@@ -208,7 +277,7 @@ public class Sprite {
     */
     public int getWidth() 
     {
-        return (int)(anim.getImage().getWidth(null)*Math.abs(xscale));
+        return (int)(store.anim[id].getImage().getWidth(null)*Math.abs(store.xscale[id]));
     }
 
     /**
@@ -217,7 +286,7 @@ public class Sprite {
     */
     public int getHeight() 
     {
-        return (int)(anim.getImage().getHeight(null)*Math.abs(yscale));
+        return (int)(store.anim[id].getImage().getHeight(null)*Math.abs(store.yscale[id]));
     }
 
     /**
@@ -225,7 +294,7 @@ public class Sprite {
     */
     public float getRadius()
     {
-    	return radius;
+    	return store.radius[id];
     }
 
     /**
@@ -234,7 +303,7 @@ public class Sprite {
     */
     public float getVelocityX() 
     {
-        return dx;
+        return store.dx[id];
     }
 
     /**
@@ -243,7 +312,7 @@ public class Sprite {
     */
     public float getVelocityY() 
     {
-        return dy;
+        return store.dy[id];
     }
     
 
@@ -253,7 +322,7 @@ public class Sprite {
     */
     public void setVelocityX(float dx) 
     {
-        this.dx = dx;
+        store.dx[id] = dx;
     }
 
     /**
@@ -262,7 +331,7 @@ public class Sprite {
     */
     public void setVelocityY(float dy) 
     {
-        this.dy = dy;
+        store.dy[id] = dy;
     }
 
     /**
@@ -271,8 +340,8 @@ public class Sprite {
 	*/
 	public void setVelocity(float dx, float dy) 
 	{
-		this.dx = dx;
-		this.dy = dy;
+		store.dx[id] = dx;
+		store.dy[id] = dy;
 	}
 
 	/**
@@ -289,8 +358,8 @@ public class Sprite {
 	*/
     public void setScale(float scx, float scy)
     {
-    	xscale = scx;
-    	yscale = scy;
+    	store.xscale[id] = scx;
+    	store.yscale[id] = scy;
     }
 
 	/**
@@ -302,8 +371,8 @@ public class Sprite {
 	*/
 	public void setScale(float s)
 	{
-		xscale = s;
-		yscale = s;
+		store.xscale[id] = s;
+		store.yscale[id] = s;
 	}
 
     
@@ -313,7 +382,7 @@ public class Sprite {
 	*/
     public double getScaleX()
     {
-    	return xscale;
+    	return store.xscale[id];
     }
     
 	/**
@@ -322,7 +391,7 @@ public class Sprite {
 	 */
 	public double getScaleY()
 	{
-		return yscale;
+		return store.yscale[id];
 	}
 
 	/**
@@ -332,7 +401,7 @@ public class Sprite {
 	*/
     public void setRotation(double r)
     {
-    	rotation = Math.toRadians(r);
+    	store.rotation[id] = Math.toRadians(r);
     }
 
 	/**
@@ -341,7 +410,7 @@ public class Sprite {
 	*/
     public double getRotation() 
     {
-    	return Math.toDegrees(rotation);
+    	return Math.toDegrees(store.rotation[id]);
     }
 
     /**
@@ -349,8 +418,8 @@ public class Sprite {
     */
     public void stop()
     {
-    	dx = 0;
-    	dy = 0;
+    	store.dx[id] = 0;
+    	store.dy[id] = 0;
     }
 
     /**
@@ -358,7 +427,7 @@ public class Sprite {
     */
     public Image getImage() 
     {
-        return anim.getImage();
+        return store.anim[id].getImage();
     }
 
 	/**
@@ -368,9 +437,9 @@ public class Sprite {
 	*/
     public void draw(Graphics2D g)
     {
-    	if (!render) return;
+    	if (!store.visible[id]) return;
 
-    	g.drawImage(getImage(),(int)x+xoff,(int)y+yoff,null);
+    	g.drawImage(getImage(),(int)store.x[id]+store.xoff[id],(int)store.y[id]+store.yoff[id],null);
     }
 
     /**
@@ -379,10 +448,10 @@ public class Sprite {
 	*/
     public void drawBoundingBox(Graphics2D g)
     {
-    	if (!render) return;
+    	if (!store.visible[id]) return;
 
 		Image img = getImage();
-    	g.drawRect((int)x,(int)y,img.getWidth(null),img.getHeight(null));
+    	g.drawRect((int)store.x[id],(int)store.y[id],img.getWidth(null),img.getHeight(null));
     }
     
     /**
@@ -391,11 +460,11 @@ public class Sprite {
 	*/
     public void drawBoundingCircle(Graphics2D g)
     {
-    	if (!render) return;
+    	if (!store.visible[id]) return;
 
 		Image img = getImage();
 		
-    	g.drawArc((int)x,(int)y,img.getWidth(null),img.getHeight(null),0, 360);
+    	g.drawArc((int)store.x[id],(int)store.y[id],img.getWidth(null),img.getHeight(null),0, 360);
     }
     
 	/**
@@ -407,7 +476,7 @@ public class Sprite {
 	*/
     public void drawTransformed(Graphics2D g)
     {
-    	if (!render) return;
+    	if (!store.visible[id]) return;
 
 		AffineTransform transform = new AffineTransform();
 		
@@ -415,12 +484,12 @@ public class Sprite {
 		// ensure shifted left and up when flipped due to scaling.
 		float shiftx = 0;
 		float shifty = 0;
-		if (xscale < 0) shiftx = getWidth();
-		if (yscale < 0) shifty = getHeight();
+		if (store.xscale[id] < 0) shiftx = getWidth();
+		if (store.yscale[id] < 0) shifty = getHeight();
 		
-		transform.translate(Math.round(x)+shiftx+xoff,Math.round(y)+shifty+yoff);
-		transform.scale(xscale,yscale);
-		transform.rotate(rotation,getImage().getWidth(null)/2,getImage().getHeight(null)/2);
+		transform.translate(Math.round(store.x[id])+shiftx+store.xoff[id],Math.round(store.y[id])+shifty+store.yoff[id]);
+		transform.scale(store.xscale[id],store.yscale[id]);
+		transform.rotate(store.rotation[id],getImage().getWidth(null)/2,getImage().getHeight(null)/2);
 		// Apply transform to the image and draw it
 		g.drawImage(getImage(),transform,null);
     }
@@ -429,17 +498,17 @@ public class Sprite {
 	/**
 		Hide the sprite.
 	*/
-    public void hide()  {	render = false;  }
+    public void hide()  {	store.setVisible(id, false);  }
 
 	/**
 		Show the sprite
 	*/
-    public void show()  {  	render = true;   }
+    public void show()  {  	store.setVisible(id, true);   }
 
 	/**
 		Check the visibility status of the sprite.
 	*/
-    public boolean isVisible() { return render; }
+    public boolean isVisible() { return store.visible[id]; }
 
 	/**
 		Set an x & y offset to use when drawing the sprite.
@@ -448,7 +517,17 @@ public class Sprite {
 	*/
     public void setOffsets(int x, int y)
     {
-    	xoff = x;
-    	yoff = y;
+    	store.xoff[id] = x;
+    	store.yoff[id] = y;
     }
+
+	/**
+		Gets the x offset used when drawing the sprite.
+	*/
+    public int getOffsetX() { return store.xoff[id]; }
+
+	/**
+		Gets the y offset used when drawing the sprite.
+	*/
+    public int getOffsetY() { return store.yoff[id]; }
 }
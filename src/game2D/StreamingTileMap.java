@@ -0,0 +1,377 @@
+package game2D;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A TileMap that only holds the part of a long level around the view. The
+ * map is split into chunks of whole columns, supplied by a ChunkSource.
+ * As the view moves, setView() asks a background thread to load the chunks
+ * just ahead of it and throws away those left far behind, so memory use
+ * stays the same however long the level is.
+ *
+ * Only resident chunks are part of the map as far as valid(), getTile()
+ * and getTileChar() are concerned. The chunks on screen are always
+ * resident: if one has not arrived by the time it is needed it is loaded
+ * straight away on the calling thread. A chunk that fails to load is left
+ * blank so the game can carry on.
+ *
+ * There are no collision bits for the whole map, so the collision queries
+ * check the characters given to setSolidCharacters() instead.
+ *
+ * Chunks are swapped in and out by setView(), which should be called from
+ * the game loop thread along with the other changes to the map.
+ */
+public class StreamingTileMap extends TileMap {
+
+	/**
+	 * Told as chunks come into and go out of range of the view, e.g. to
+	 * place and remove the things that live in them. Calls are made from
+	 * setView(), in the order the view moves, whether or not the chunk's
+	 * tiles have arrived yet, so they are the same on every run.
+	 */
+	public interface ChunkListener {
+		/**
+		 * @param index The chunk that has come into range
+		 */
+		void chunkEntered(int index);
+
+		/**
+		 * @param index The chunk that has gone out of range
+		 */
+		void chunkLeft(int index);
+	}
+
+	/**
+	 * A loaded chunk. Its tiles are only changed by the game loop thread
+	 * once it is resident. The fields are final so a render thread that
+	 * finds the chunk in a slot always sees it whole, and its tile array
+	 * is never reused for another chunk, as a render thread may still be
+	 * drawing from it after it has been evicted.
+	 */
+	private static class Chunk
+	{
+		final int index;		// The chunk's position in the map
+		final char [] tiles;	// Its tile characters, row by row
+
+		Chunk(int index, char [] tiles)
+		{
+			this.index = index;
+			this.tiles = tiles;
+		}
+	}
+
+	private ChunkSource source;		// Where the chunks come from
+	private int chunkWidth;			// Width of a chunk in tiles
+	private int chunkCount;			// Number of chunks in the map
+	private int behind;				// Chunks kept to the left of the view
+	private int ahead;				// Chunks loaded to the right of the view
+
+	// The resident chunks, chunk 'i' in slot 'i % slots.length', or null.
+	// Replaced by allocate() while a render thread may be reading it.
+	private volatile Chunk [] slots;
+	private int [] requested;		// The chunk being loaded for each slot, or -1
+	private int first = -1;			// The first chunk in the window kept resident
+	private int last = -1;			// The last chunk in the window kept resident
+
+	// Chunks loaded in the background, waiting for setView() to install them
+	private ConcurrentLinkedQueue<Chunk> loaded = new ConcurrentLinkedQueue<Chunk>();
+	private ExecutorService loader;	// The background loading thread
+	private ChunkListener listener;	// Told as chunks come into range, or null
+
+	/**
+	 * Creates a map streamed from 'source', keeping one chunk behind the
+	 * view and loading two ahead of it.
+	 *
+	 * @param source Where the chunks come from
+	 * @param viewWidth The width of the view in pixels
+	 */
+	public StreamingTileMap(ChunkSource source, int viewWidth)
+	{
+		this(source, viewWidth, 1, 2);
+	}
+
+	/**
+	 * Creates a map streamed from 'source'.
+	 *
+	 * @param source Where the chunks come from
+	 * @param viewWidth The width of the view in pixels
+	 * @param behind The number of chunks to keep to the left of the view
+	 * @param ahead The number of chunks to load to the right of the view
+	 */
+	public StreamingTileMap(ChunkSource source, int viewWidth, int behind, int ahead)
+	{
+		this.source = source;
+		this.behind = Math.max(0, behind);
+		this.ahead = Math.max(0, ahead);
+		chunkWidth = source.getChunkWidth();
+		chunkCount = (int)(((long)source.getMapWidth() + chunkWidth - 1) / chunkWidth);
+
+		// Chunk images would cover the whole map, so draw tile by tile
+		setChunkCaching(false);
+		setDimensions(source.getMapWidth(), source.getMapHeight(), source.getTileWidth(), source.getTileHeight());
+		String chars = source.getTileCharacters();
+		for (int i=0; i<chars.length(); i++)
+		{
+			char ch = chars.charAt(i);
+			try
+			{
+				Image img = source.loadTileImage(ch);
+				if (img != null)
+					setTileImage(ch, img, null);
+				else
+					System.err.println("Failed to load the image for tile '" + ch + "'");
+			}
+			catch (IOException e)
+			{
+				System.err.println("Failed to load the image for tile '" + ch + "':" + e);
+			}
+		}
+
+		allocate(windowSize(viewWidth));
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Chunk loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		setView(0, viewWidth);
+	}
+
+	/**
+	 * @return The width of a chunk in tiles
+	 */
+	public int getChunkWidth() { return chunkWidth; }
+
+	/**
+	 * @return The number of chunks currently in memory
+	 */
+	public int getResidentChunks()
+	{
+		int n = 0;
+		for (int i=0; i<slots.length; i++)
+			if (slots[i] != null) n++;
+		return n;
+	}
+
+	/**
+	 * @param index The chunk to check
+	 * @return True if chunk 'index' is in memory
+	 */
+	public boolean isResident(int index)
+	{
+		if (index < 0) return false;
+		Chunk c = slots[index % slots.length];
+		return c != null && c.index == index;
+	}
+
+	/**
+	 * Installs any chunks that have finished loading, evicts those that
+	 * have fallen out of range of the view, makes sure every chunk on
+	 * screen is resident and starts loading the ones just ahead.
+	 *
+	 * @param x The left edge of the view, in pixels from the left of the map
+	 * @param width The width of the view in pixels
+	 */
+	public void setView(int x, int width)
+	{
+		super.setView(x, width);
+		if (slots == null || chunkCount <= 0) return;
+
+		int chunkPixels = chunkWidth * getTileWidth();
+		int firstVisible = Math.max(0, Math.floorDiv(x, chunkPixels));
+		int lastVisible = Math.min(chunkCount - 1, Math.floorDiv(x + Math.max(1, width) - 1, chunkPixels));
+		if (firstVisible > lastVisible) firstVisible = lastVisible;
+		if (windowSize(width) > slots.length) allocate(windowSize(width));
+		int oldFirst = first;
+		int oldLast = last;
+		first = Math.max(0, firstVisible - behind);
+		last = Math.min(chunkCount - 1, lastVisible + ahead);
+		if (listener != null && (first != oldFirst || last != oldLast))
+		{
+			for (int index=oldFirst; index<=oldLast; index++)
+				if (index >= 0 && (index < first || index > last)) listener.chunkLeft(index);
+			for (int index=first; index<=last; index++)
+				if (index < oldFirst || index > oldLast) listener.chunkEntered(index);
+		}
+
+		// Throw away whatever has left the window
+		for (int i=0; i<slots.length; i++)
+		{
+			Chunk c = slots[i];
+			if (c != null && (c.index < first || c.index > last))
+				slots[i] = null;
+		}
+
+		Chunk c;
+		while ((c = loaded.poll()) != null) install(c);
+
+		for (int index=first; index<=last; index++)
+		{
+			if (isResident(index)) continue;
+			if (index >= firstVisible && index <= lastVisible)
+				install(new Chunk(index, read(index)));
+			else
+				request(index);
+		}
+	}
+
+	/**
+	 * Sets the listener told as chunks come into and go out of range. It is
+	 * told straight away about the chunks already in range.
+	 *
+	 * @param listener The listener, or null for none
+	 */
+	public void setChunkListener(ChunkListener listener)
+	{
+		this.listener = listener;
+		if (listener == null) return;
+		for (int index=Math.max(0, first); index<=last; index++)
+			listener.chunkEntered(index);
+	}
+
+	/**
+	 * Stops the background loader. The resident chunks can still be used.
+	 */
+	public void close()
+	{
+		loader.shutdownNow();
+	}
+
+	/**
+	 * A streamed map is loaded from its ChunkSource, so this always fails.
+	 */
+	public boolean loadMap(String folder, String mapfile)
+	{
+		System.err.println("A streaming tile map cannot load '" + mapfile + "'");
+		return false;
+	}
+
+	/**
+	 * @return true if tile coordinate 'x,y' is in the map and its chunk is resident
+	 */
+	public boolean valid(int x, int y)
+	{
+		return super.valid(x, y) && isResident(x / chunkWidth);
+	}
+
+	/**
+	 * Generate the resident columns of the tile map as a String
+	 */
+	public String toString()
+	{
+		if (first < 0) return "";
+		int from = first * chunkWidth;
+		int to = Math.min(getMapWidth(), (last + 1) * chunkWidth);
+		StringBuffer s = new StringBuffer();
+		for (int r=0; r<getMapHeight(); r++)
+		{
+			for (int c=from; c<to; c++)
+				s.append(isResident(c / chunkWidth) ? cell(c, r) : '?');
+			s.append('\n');
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Reads a cell from its chunk. Cells of chunks that are not resident
+	 * read as blank, so drawing never waits for a chunk.
+	 */
+	protected char cell(int x, int y)
+	{
+		int index = x / chunkWidth;
+		Chunk [] s = slots;		// May be reallocated by setView() while another thread draws
+		Chunk c = s[index % s.length];
+		if (c == null || c.index != index) return '.';
+		return c.tiles[y * chunkWidth + x - index * chunkWidth];
+	}
+
+	protected void setCell(int x, int y, char ch)
+	{
+		int index = x / chunkWidth;
+		Chunk c = slots[index % slots.length];
+		if (c != null && c.index == index) c.tiles[y * chunkWidth + x - index * chunkWidth] = ch;
+	}
+
+	/**
+	 * Puts a loaded chunk in its slot if it is still wanted.
+	 */
+	private void install(Chunk c)
+	{
+		int slot = c.index % slots.length;
+		if (requested[slot] == c.index) requested[slot] = -1;
+		if (c.index < first || c.index > last || isResident(c.index)) return;
+		slots[slot] = c;
+		cellsChanged(c.index * chunkWidth, 0, Math.min(chunkWidth, getMapWidth() - c.index * chunkWidth), getMapHeight());
+	}
+
+	/**
+	 * Starts loading chunk 'index' in the background, unless it already is.
+	 */
+	private void request(final int index)
+	{
+		int slot = index % slots.length;
+		if (requested[slot] == index) return;
+		requested[slot] = index;
+		loader.execute(new Runnable() {
+			public void run()
+			{
+				loaded.add(new Chunk(index, read(index)));
+			}
+		});
+	}
+
+	/**
+	 * Reads chunk 'index' from the source into a new tile array, leaving
+	 * it blank if it cannot be read. Safe to call from any thread.
+	 */
+	private char [] read(int index)
+	{
+		char [] tiles = new char[chunkWidth * getMapHeight()];
+		try
+		{
+			source.loadChunk(index, tiles);
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to load map chunk " + index + ":" + e);
+			Arrays.fill(tiles, '.');
+		}
+		return tiles;
+	}
+
+	/**
+	 * @return The number of chunks that can be resident for a view 'width' pixels wide
+	 */
+	private int windowSize(int width)
+	{
+		int chunkPixels = chunkWidth * getTileWidth();
+		return behind + ahead + (Math.max(1, width) + chunkPixels - 1) / chunkPixels + 1;
+	}
+
+	/**
+	 * Makes room for 'size' resident chunks, keeping those already resident.
+	 */
+	private void allocate(int size)
+	{
+		Chunk [] old = slots;
+		Chunk [] s = new Chunk[size];
+		requested = new int[size];
+		Arrays.fill(requested, -1);
+		if (old != null)
+		{
+			for (int i=0; i<old.length; i++)
+			{
+				if (old[i] != null) s[old[i].index % size] = old[i];
+			}
+		}
+		slots = s;		// Only published once filled
+	}
+}
@@ -1,11 +1,11 @@
 package game2D;
 
-import javax.swing.ImageIcon;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Point;
 import java.awt.Rectangle;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.io.*;
 
 
@@ -24,6 +24,9 @@ import java.io.*;
 #b=orangeblock.png
 #c=greencircle.png
 #g=glasses.png
+// An animated tile gives a sheet of frames side by side, the number
+// of frames and the time each is shown in milliseconds
+#w=water.png 4 150
 // The actual tile map is preceded by the #map line
 #map
 bbbbbbbbbb
@@ -33,20 +36,74 @@ bccccccccb
 bbbbbbbbbb
 
 }
+ * The map is held as one character per cell in a single array, row by
+ * row, rather than as a Tile object per cell, so even very large maps
+ * only need two bytes a cell. Tile positions are worked out from the
+ * cell's row and column when needed.
+ *
+ * Maps can also be compiled to a binary format with MapCompiler, which
+ * loads much faster and can carry collision data. loadMap() reads either
+ * kind, choosing by the ".tmb" ending of compiled maps.
+ *
+ * Every tile of an animated type shows the same frame, advanced by one
+ * clock per type in update(), so animating a screen full of them costs no
+ * more than animating one. Only the animated tiles in view are redrawn when
+ * their frame changes; chunk caching leaves them out and draws them over
+ * the cached chunks.
+ *
+ * Collision is answered from one bit per cell, built when the map loads
+ * from the characters given to setSolidCharacters(). isSolid(),
+ * findSolid() and getGroundY() read these bits without creating objects.
+ *
  * @author David Cairns
  */
 public class TileMap 
 {
 
-	private Tile [][] tmap;		// The tile map grid, initially null
+	private char [] cells;		// The tile characters, row by row, initially null
 	private int mapWidth=0;		// The maps width in tiles
 	private int mapHeight=0;	// The maps height in tiles
 	private int tileWidth=0;	// The width of a tile in pixels
 	private int tileHeight=0;	// The height of a tile in pixels
 //	
-	// imagemap contains a set of character to image mappings for
-	// quick loop up of the image associated with a given character.
-	private Map<String,Image> imagemap = new HashMap<String,Image>();
+	// imagemap holds the image for each tile character, indexed by the
+	// character itself, for quick look up of the image for a given tile.
+	private Image [] imagemap = new Image[128];
+	private String [] imagenames = new String[128];	// The file each image came from
+	private ArrayList<Object> assets = new ArrayList<Object>();	// Images and frames from the asset cache
+	
+	// The frames and clock of each animated tile type, indexed by the character, or null
+	private TileAnimation [] animations = new TileAnimation[128];
+	private char [] animated = new char[0];	// The characters of the animated tile types
+	private int viewX;				// The part of the map last given to setView(), in pixels
+	private int viewWidth = -1;		// -1 if setView() has not been called
+	
+	// One bit per cell, row by row, set if the cell is solid. Null if the map has no collision data.
+	private long [] solid;
+	// True for each tile character that is solid, indexed by the character
+	private boolean [] solidChars = new boolean[128];
+	private boolean anySolidChars;	// True if any character has been made solid
+	
+	// Areas of the map (in map pixels) changed since the owner last cleared them
+	private DirtyRegions damage = new DirtyRegions();
+	
+	// Pre-drawn 16x16 tile chunks, up to 32MB of them, or null to draw tile by tile
+	private ChunkCache chunks = new ChunkCache(this, 16, 32L << 20);
+	
+	private Rectangle clip = new Rectangle();	// Reused by draw() to find the visible tiles
+	
+	/**
+	 * The frames of an animated tile type and the clock shared by every
+	 * tile of that type.
+	 */
+	private static class TileAnimation
+	{
+		Image [] frames;	// The frames in order
+		long frameTime;		// How long each frame is shown in milliseconds
+		long time;			// Time since the animation started
+		int frame;			// The frame being shown
+		boolean changed;	// True if the frame changed in the last update()
+	}
 	
 	/**
 	 * @return The map height in tiles
@@ -100,6 +157,8 @@ public class TileMap
 	 */
 	public boolean loadMap(String folder, String mapfile)
 	{
+		if (mapfile.endsWith(MapCompiler.EXTENSION)) return loadCompiled(folder, mapfile);
+		
 		// Create a full path to the tile map by sticking the folder and mapfile together
 		String path = folder + "/" + mapfile;
 		int row=0;
@@ -112,7 +171,10 @@ public class TileMap
 			String [] vals;
 			
 			// First we need to clear out the old image map
-			imagemap.clear();
+			clearTileImages();
+			solid = null;
+			damage.markAll();
+			if (chunks != null) chunks.invalidateAll();
 			
 			// Read the first line of the tile map to find out
 			// the relevant dimensions of the map plus the tiles
@@ -145,14 +207,19 @@ public class TileMap
 				{
 					// Extract the character
 					
-					String ch = "" + trimmed.charAt(1);
+					char ch = trimmed.charAt(1);
 					// and it's file name
 					String fileName = trimmed.substring(3,trimmed.length());
+					if (fileName.indexOf(' ') >= 0)
+					{
+						loadAnimatedTile(folder, ch, fileName);
+						continue;
+					}
 					
-					Image img  = new ImageIcon(folder + "/" + fileName).getImage();
+					Image img = acquireImage(folder + "/" + fileName);
 					// Now add this character->image mapping to the map
 					if (img != null)
-						imagemap.put(ch,img);
+						setTileImage(ch, img, fileName);
 					else
 						System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
 				}
@@ -161,7 +228,8 @@ public class TileMap
 			// Check the map dimensione are at least > 0
 			if ((mapWidth > 0) && (mapHeight > 0))
 			{
-				tmap = new Tile[mapWidth][mapHeight]; 
+				cells = new char[mapWidth * mapHeight];
+				Arrays.fill(cells, '.');
 			}
 			else
 			{
@@ -184,8 +252,7 @@ public class TileMap
 						continue;
 					}
 					
-					for (int col=0; col<mapWidth && col<line.length(); col++)
-						tmap[col][row] = new Tile(line.charAt(col),col*tileWidth,row*tileHeight);
+					line.getChars(0, mapWidth, cells, row * mapWidth);
 					row++;
 					
 					if (row >= mapHeight) break;
@@ -207,9 +274,436 @@ public class TileMap
 			return false;
 		}
 		
+		buildSolid();
 		return true;
 	}
 	
+	/**
+	 * Loads a map compiled by MapCompiler. The file is memory mapped and
+	 * read straight into the map's cells, and the tile images come from the
+	 * shared AssetCache, so even a large map loads in a few milliseconds.
+	 * A map with collision data also sets the solid characters it was
+	 * compiled with, so setTileChar() can keep the data up to date.
+	 * 
+	 * @param folder The folder the compiled map and its images are located in
+	 * @param mapfile The name of the compiled map file in the folder
+	 * @return true if the map loaded successfully, false otherwise
+	 */
+	public boolean loadCompiled(String folder, String mapfile)
+	{
+		String path = folder + "/" + mapfile;
+		try
+		{
+			CompiledMap file = new CompiledMap(path);
+			char [] loaded = new char[file.width * file.height];
+			file.readCells(0, file.width, loaded, file.width);
+			long [] bits = file.readCollision();
+			
+			clearTileImages();
+			for (int i=0; i<file.names.length; i++)
+			{
+				if (file.names[i].isEmpty()) continue;
+				if (file.names[i].indexOf(' ') >= 0)
+				{
+					loadAnimatedTile(folder, file.chars[i], file.names[i]);
+					continue;
+				}
+				Image img = acquireImage(folder + "/" + file.names[i]);
+				if (img != null)
+					setTileImage(file.chars[i], img, file.names[i]);
+				else
+					System.err.println("Failed to load image '" + folder + "/" + file.names[i] + "'");
+			}
+			
+			setDimensions(file.width, file.height, file.tileWidth, file.tileHeight);
+			cells = loaded;
+			if (bits != null)
+			{
+				// Older files only have the bits, so take the characters from them
+				useSolidCharacters(file.solidChars != null ? file.solidChars : solidCharacters(loaded, bits));
+				solid = bits;
+			}
+			else
+				buildSolid();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to read in compiled tile map '" + path + "':" + e);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets the size of the map and its tiles, for subclasses that hold their
+	 * cells elsewhere. The whole map is marked as changed.
+	 * 
+	 * @param width The map width in tiles
+	 * @param height The map height in tiles
+	 * @param tw The width of a tile in pixels
+	 * @param th The height of a tile in pixels
+	 */
+	protected void setDimensions(int width, int height, int tw, int th)
+	{
+		mapWidth = width;
+		mapHeight = height;
+		tileWidth = tw;
+		tileHeight = th;
+		cells = null;
+		solid = null;
+		damage.markAll();
+		if (chunks != null) chunks.invalidateAll();
+	}
+	
+	/**
+	 * Marks the given area of the map as changed, so that it is drawn again.
+	 * 
+	 * @param x The first column that changed
+	 * @param y The first row that changed
+	 * @param w The number of columns that changed
+	 * @param h The number of rows that changed
+	 */
+	protected void cellsChanged(int x, int y, int w, int h)
+	{
+		damage.add(x*tileWidth, y*tileHeight, w*tileWidth, h*tileHeight);
+		if (chunks != null)
+		{
+			for (int r=y; r<y+h; r++)
+				for (int c=x; c<x+w; c++)
+					chunks.invalidate(c, r);
+		}
+	}
+	
+	/**
+	 * Removes every tile image.
+	 */
+	protected void clearTileImages()
+	{
+		dispose();
+		Arrays.fill(imagemap, null);
+		Arrays.fill(imagenames, null);
+		Arrays.fill(animations, null);
+		animated = new char[0];
+	}
+	
+	/**
+	 * Gives the map's images back to the shared AssetCache, e.g. once it is
+	 * replaced by another map. The map can still be drawn, but its images
+	 * may be dropped from the cache.
+	 */
+	public void dispose()
+	{
+		for (int i=0; i<assets.size(); i++)
+			AssetCache.getShared().release(assets.get(i));
+		assets.clear();
+	}
+	
+	/**
+	 * Gets a tile image from the shared AssetCache, so maps that share
+	 * tiles only decode them once.
+	 */
+	private Image acquireImage(String path)
+	{
+		Image img = AssetCache.getShared().acquireImage(path);
+		if (img != null) assets.add(img);
+		return img;
+	}
+	
+	/**
+	 * Loads an animated tile type from a description of the form
+	 * "sheet.png frames milliseconds", where the sheet holds the frames
+	 * side by side.
+	 * 
+	 * @param folder The folder holding the sheet
+	 * @param ch The tile character
+	 * @param spec The description of the animation
+	 * @return true if the animation loaded
+	 */
+	protected boolean loadAnimatedTile(String folder, char ch, String spec)
+	{
+		String [] vals = spec.trim().split("\\s+");
+		try
+		{
+			if (vals.length != 3) throw new IOException("expected 'sheet frames milliseconds'");
+			int count = Integer.parseInt(vals[1]);
+			long frameTime = Long.parseLong(vals[2]);
+			if (count <= 0 || frameTime <= 0) throw new IOException("frames and time must be above 0");
+			Image [] frames = AssetCache.getShared().acquireFrames(folder + "/" + vals[0], count, 1);
+			if (frames == null) throw new IOException("not an image");
+			assets.add(frames);
+			
+			TileAnimation anim = new TileAnimation();
+			anim.frames = frames;
+			anim.frameTime = frameTime;
+			
+			setTileImage(ch, anim.frames[0], spec);
+			if (ch >= animations.length) animations = Arrays.copyOf(animations, ch + 1);
+			if (animations[ch] == null)
+			{
+				animated = Arrays.copyOf(animated, animated.length + 1);
+				animated[animated.length - 1] = ch;
+			}
+			animations[ch] = anim;
+			return true;
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to load animated tile '" + ch + "' from '" + folder + "/" + spec + "':" + e);
+			return false;
+		}
+	}
+	
+	/**
+	 * @param ch A tile character
+	 * @return true if tiles with character 'ch' are animated
+	 */
+	public boolean isAnimated(char ch)
+	{
+		return ch < animations.length && animations[ch] != null;
+	}
+	
+	/**
+	 * Advances the clock of every animated tile type. Where a type's frame
+	 * changes, its tiles within the view given to setView() are marked as
+	 * changed, or all of them if the view has not been set.
+	 * 
+	 * @param elapsed The time since the last update in milliseconds
+	 */
+	public void update(long elapsed)
+	{
+		boolean changed = false;
+		for (int i=0; i<animated.length; i++)
+		{
+			TileAnimation anim = animations[animated[i]];
+			anim.time += elapsed;
+			int frame = (int)((anim.time / anim.frameTime) % anim.frames.length);
+			anim.changed = frame != anim.frame;
+			if (anim.changed)
+			{
+				anim.frame = frame;
+				imagemap[animated[i]] = anim.frames[frame];
+				changed = true;
+			}
+		}
+		if (!changed) return;
+		
+		int firstCol = 0;
+		int lastCol = mapWidth - 1;
+		if (viewWidth >= 0)
+		{
+			firstCol = Math.max(0, Math.floorDiv(viewX, tileWidth));
+			lastCol = Math.min(mapWidth - 1, Math.floorDiv(viewX + viewWidth - 1, tileWidth));
+		}
+		for (int r=0; r<mapHeight; r++)
+		{
+			for (int c=firstCol; c<=lastCol; c++)
+			{
+				char ch = cell(c, r);
+				if (ch < animations.length && animations[ch] != null && animations[ch].changed)
+					damage.add(c*tileWidth, r*tileHeight, tileWidth, tileHeight);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the image drawn for tiles with character 'ch'.
+	 * 
+	 * @param ch The tile character
+	 * @param img The image to draw for it
+	 * @param fileName The file the image came from, relative to the map's folder
+	 */
+	protected void setTileImage(char ch, Image img, String fileName)
+	{
+		if (ch >= imagemap.length)
+		{
+			imagemap = Arrays.copyOf(imagemap, ch + 1);
+			imagenames = Arrays.copyOf(imagenames, ch + 1);
+		}
+		imagemap[ch] = img;
+		imagenames[ch] = fileName;
+	}
+	
+	/**
+	 * Gets the name of the image file used for tiles with character 'ch',
+	 * relative to the folder the map was loaded from.
+	 * 
+	 * @param ch The tile character
+	 * @return The file name, or null if the character has no image
+	 */
+	public String getTileImageName(char ch)
+	{
+		if (ch >= imagenames.length) return null;
+		return imagenames[ch];
+	}
+	
+	/**
+	 * Sets the collision data for the map, one bit per cell row by row,
+	 * set for solid cells. setTileChar() updates the bit of each tile it
+	 * changes from the solid characters.
+	 * 
+	 * @param bits The collision data, or null for none
+	 */
+	public void setSolid(long [] bits)
+	{
+		solid = bits;
+	}
+	
+	/**
+	 * Sets which tile characters are solid. Maps loaded afterwards build
+	 * their collision data from these characters, unless a compiled map
+	 * carries its own, and the current map's collision data is rebuilt.
+	 * 
+	 * @param chars The characters of the solid tiles
+	 */
+	public void setSolidCharacters(String chars)
+	{
+		useSolidCharacters(chars);
+		buildSolid();
+	}
+	
+	/**
+	 * Sets which tile characters are solid without rebuilding the collision data.
+	 */
+	private void useSolidCharacters(String chars)
+	{
+		Arrays.fill(solidChars, false);
+		anySolidChars = false;
+		for (int i=0; i<chars.length(); i++)
+		{
+			char ch = chars.charAt(i);
+			if (ch >= solidChars.length) solidChars = Arrays.copyOf(solidChars, ch + 1);
+			solidChars[ch] = true;
+			anySolidChars = true;
+		}
+	}
+	
+	/**
+	 * Works out the solid characters from collision data, as those of the
+	 * cells whose bits are set.
+	 * 
+	 * @param cells The tile characters, row by row
+	 * @param bits The collision data for 'cells'
+	 * @return The characters of the solid cells
+	 */
+	private static String solidCharacters(char [] cells, long [] bits)
+	{
+		StringBuilder chars = new StringBuilder();
+		for (int i=0; i<cells.length; i++)
+		{
+			if ((bits[i >> 6] & (1L << i)) != 0 && chars.indexOf(String.valueOf(cells[i])) < 0)
+				chars.append(cells[i]);
+		}
+		return chars.toString();
+	}
+	
+	/**
+	 * @param ch A tile character
+	 * @return true if tiles with character 'ch' are solid
+	 */
+	public boolean isSolidCharacter(char ch)
+	{
+		return ch < solidChars.length && solidChars[ch];
+	}
+	
+	/**
+	 * Builds the collision data for the whole map from the solid characters.
+	 */
+	private void buildSolid()
+	{
+		if (!anySolidChars || cells == null)
+		{
+			if (cells != null) solid = null;
+			return;
+		}
+		solid = new long[(cells.length + 63) / 64];
+		for (int i=0; i<cells.length; i++)
+		{
+			if (isSolidCharacter(cells[i])) solid[i >> 6] |= 1L << i;
+		}
+	}
+	
+	/**
+	 * Checks whether tile 'x,y' is solid, from the collision data if the map
+	 * has any or else from its character.
+	 * 
+	 * @param x The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return true if tile 'x,y' is solid, false if not or it is outside the map
+	 */
+	public boolean isSolid(int x, int y)
+	{
+		if (!valid(x,y)) return false;
+		return solidAt(x, y);
+	}
+	
+	/**
+	 * Checks whether a tile known to be in the map is solid.
+	 */
+	private boolean solidAt(int x, int y)
+	{
+		long [] bits = solid;
+		if (bits == null) return isSolidCharacter(cell(x, y));
+		int i = y*mapWidth + x;
+		return (bits[i >> 6] & (1L << i)) != 0;
+	}
+	
+	/**
+	 * Finds the first solid tile overlapping a rectangle, searching row by
+	 * row from the top left. Parts of the rectangle outside the map are
+	 * ignored.
+	 * 
+	 * @param x The left edge of the rectangle in map pixels
+	 * @param y The top edge of the rectangle in map pixels
+	 * @param w The width of the rectangle in pixels
+	 * @param h The height of the rectangle in pixels
+	 * @param tile Set to the column and row of the solid tile, if one is found
+	 * @return true if a solid tile was found
+	 */
+	public boolean findSolid(int x, int y, int w, int h, Point tile)
+	{
+		if (w <= 0 || h <= 0 || tileWidth <= 0 || tileHeight <= 0) return false;
+		int firstCol = Math.max(0, Math.floorDiv(x, tileWidth));
+		int lastCol = Math.min(mapWidth - 1, Math.floorDiv(x + w - 1, tileWidth));
+		int firstRow = Math.max(0, Math.floorDiv(y, tileHeight));
+		int lastRow = Math.min(mapHeight - 1, Math.floorDiv(y + h - 1, tileHeight));
+		for (int r=firstRow; r<=lastRow; r++)
+		{
+			for (int c=firstCol; c<=lastCol; c++)
+			{
+				if (valid(c, r) && solidAt(c, r))
+				{
+					tile.setLocation(c, r);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the ground beneath a span of columns: the top of the highest
+	 * solid tile under any of them, at or below a given height.
+	 * 
+	 * @param x The left edge of the span in map pixels
+	 * @param w The width of the span in pixels
+	 * @param y The height to search down from in map pixels
+	 * @return The y pixel coordinate of the top of the ground, or -1 if there is none
+	 */
+	public int getGroundY(int x, int w, int y)
+	{
+		if (w <= 0 || tileWidth <= 0 || tileHeight <= 0) return -1;
+		int firstCol = Math.max(0, Math.floorDiv(x, tileWidth));
+		int lastCol = Math.min(mapWidth - 1, Math.floorDiv(x + w - 1, tileWidth));
+		for (int r=Math.max(0, Math.floorDiv(y, tileHeight)); r<mapHeight; r++)
+		{
+			for (int c=firstCol; c<=lastCol; c++)
+			{
+				if (valid(c, r) && solidAt(c, r)) return r * tileHeight;
+			}
+		}
+		return -1;
+	}
+	
 	/**
 	 * Generate the tile map as a String so we can inspect its current state
 	 */
@@ -219,7 +713,7 @@ public class TileMap
 		for (int r=0; r<mapHeight; r++)
 		{
 			for (int c=0; c<mapWidth; c++)
-				s.append(tmap[c][r].getCharacter());
+				s.append(cell(c, r));
 	
 			s.append('\n');
 		}
@@ -236,11 +730,25 @@ public class TileMap
 	public Image getTileImage(int x, int y)
 	{
 		if (!valid(x,y)) return null;
-		Tile t = tmap[x][y];
-		if (t == null) return null;
-		char ch = t.getCharacter();
-		if (ch == '.') return null; // Blank space
-		return imagemap.get(ch + "");
+		char ch = cell(x, y);
+		if (ch == '.' || ch >= imagemap.length) return null; // Blank space or no image
+		return imagemap[ch];
+	}
+	
+	/**
+	 * Gets the image of a tile that is not animated, for drawing into a
+	 * cache that is kept from frame to frame.
+	 * 
+	 * @param x	The x tile coordinate (in tiles, not pixels)
+	 * @param y The y tile coordinate (in tiles, not pixels)
+	 * @return The tile's image, null if blank, not found or animated
+	 */
+	Image getStillTileImage(int x, int y)
+	{
+		if (!valid(x,y)) return null;
+		char ch = cell(x, y);
+		if (ch == '.' || ch >= imagemap.length || isAnimated(ch)) return null;
+		return imagemap[ch];
 	}
 	
 	/**
@@ -253,7 +761,7 @@ public class TileMap
 	public int getTileXC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getXC();
+		return x * tileWidth;
 	}
 	
 	/**
@@ -266,7 +774,47 @@ public class TileMap
 	public int getTileYC(int x, int y)
 	{
 		if (!valid(x,y)) return 0;
-		return tmap[x][y].getYC();
+		return y * tileHeight;
+	}
+	
+	/**
+	 * Reads a cell with no checks. Every read of the map's cells goes through
+	 * here, so a subclass can keep them somewhere else.
+	 * 
+	 * @param x The x tile coordinate, which must be valid
+	 * @param y The y tile coordinate, which must be valid
+	 * @return The cell's character
+	 */
+	protected char cell(int x, int y)
+	{
+		return cells[y*mapWidth + x];
+	}
+	
+	/**
+	 * Writes a cell with no checks. Every change to the map's cells goes
+	 * through here.
+	 * 
+	 * @param x The x tile coordinate, which must be valid
+	 * @param y The y tile coordinate, which must be valid
+	 * @param ch The character to set the cell to
+	 */
+	protected void setCell(int x, int y, char ch)
+	{
+		cells[y*mapWidth + x] = ch;
+	}
+	
+	/**
+	 * Tells the map which part of it is on screen. An ordinary map holds all
+	 * of its cells so ignores this, but a StreamingTileMap loads the cells
+	 * around the view. Call it from the game loop thread as the view moves.
+	 * 
+	 * @param x The left edge of the view, in pixels from the left of the map
+	 * @param width The width of the view in pixels
+	 */
+	public void setView(int x, int width)
+	{
+		viewX = x;
+		viewWidth = width;
 	}
 	
 	/**
@@ -291,10 +839,33 @@ public class TileMap
 	public boolean setTileChar(char ch, int x, int y)
 	{
 		if (!valid(x,y)) return false;
-		tmap[x][y].setCharacter(ch);
+		setCell(x, y, ch);
+		long [] bits = solid;
+		if (bits != null)
+		{
+			int i = y*mapWidth + x;
+			if (isSolidCharacter(ch))
+				bits[i >> 6] |= 1L << i;
+			else
+				bits[i >> 6] &= ~(1L << i);
+		}
+		cellsChanged(x, y, 1, 1);
 		return true;
 	}
 	
+	/**
+	 * Gets the areas of the map changed by setTileChar() or loadMap(), in
+	 * pixels relative to the top left of the map. The caller should clear
+	 * them once it has dealt with them, e.g. by passing them on to
+	 * GameCore.markDirty() with the map's current offset.
+	 * 
+	 * @return The changed areas of the map
+	 */
+	public DirtyRegions getDamage()
+	{
+		return damage;
+	}
+	
 	/**
 	 * Gets the tile character at position 'x,y'
 	 * 
@@ -305,11 +876,13 @@ public class TileMap
 	public char getTileChar(int x, int y)
 	{
 		if (!valid(x,y)) return '?';
-		return tmap[x][y].getCharacter();
+		return cell(x, y);
 	}
 
 	/**
-	 * Gets the tile object at position 'x,y'
+	 * Gets a tile object for position 'x,y'. The map no longer keeps Tile
+	 * objects, so this is a new view of the cell each time: setting its
+	 * character changes the map. Prefer getTileChar() where possible.
 	 * 
 	 * @param x The x tile coordinate (in tiles, not pixels)
 	 * @param y The y tile coordinate (in tiles, not pixels)
@@ -318,7 +891,46 @@ public class TileMap
 	public Tile getTile(int x, int y)
 	{
 		if (!valid(x,y)) return null;
-		return tmap[x][y];
+		return new CellView(x, y);
+	}
+	
+	/**
+	 * A Tile that reads and writes its character straight from the map.
+	 */
+	private class CellView extends Tile
+	{
+		private int col, row;	// The cell this tile views
+		
+		CellView(int col, int row)
+		{
+			super(cell(col, row), col*tileWidth, row*tileHeight);
+			this.col = col;
+			this.row = row;
+		}
+		
+		public char getCharacter() { return getTileChar(col, row); }
+		
+		public void setCharacter(char character) { setTileChar(character, col, row); }
+	}
+	
+	/**
+	 * Turns drawing the map from cached chunk images on or off. When off,
+	 * each tile is drawn separately every frame.
+	 * 
+	 * @param cache True to draw from cached chunks
+	 */
+	public void setChunkCaching(boolean cache)
+	{
+		if (!cache) chunks = null;
+		else if (chunks == null) chunks = new ChunkCache(this, 16, 32L << 20);
+	}
+	
+	/**
+	 * @return The chunk cache used to draw the map, or null if it is drawn tile by tile
+	 */
+	public ChunkCache getChunkCache()
+	{
+		return chunks;
 	}
 	
 	/**
@@ -331,25 +943,36 @@ public class TileMap
 	public void draw(Graphics2D g, int xoff, int yoff)
 	{
 		if (g == null) return;
+		
+		// The cached chunks leave out animated tiles, which are drawn over them
+		ChunkCache cache = chunks;
+		if (cache != null)
+		{
+			cache.draw(g, xoff, yoff);
+			if (animated.length == 0) return;
+		}
 	
-		Image img=null;
-		Rectangle rect = (Rectangle)g.getClip();
-		int xc,yc;
+		// Only visit the cells that overlap the clip. getClipBounds leaves the
+		// rectangle alone when there is no clip, so start with everything.
+		clip.setBounds(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clip);
+		int firstCol = Math.max(0, Math.floorDiv(clip.x - xoff, tileWidth));
+		int lastCol = Math.min(mapWidth - 1, Math.floorDiv(clip.x + clip.width - 1 - xoff, tileWidth));
+		int firstRow = Math.max(0, Math.floorDiv(clip.y - yoff, tileHeight));
+		int lastRow = Math.min(mapHeight - 1, Math.floorDiv(clip.y + clip.height - 1 - yoff, tileHeight));
 		
-		for (int r=0; r<mapHeight; r++)
+		Image img=null;
+		for (int r=firstRow; r<=lastRow; r++)
 		{
-			for (int c=0; c<mapWidth; c++)
+			for (int c=firstCol; c<=lastCol; c++)
 			{
-				img = getTileImage(c, r);
+				char ch = cell(c, r);
+				if (ch == '.' || ch >= imagemap.length) continue;
+				if (cache != null && !isAnimated(ch)) continue;
+				img = imagemap[ch];
 				if (img == null) continue;
-				xc = xoff + c*tileWidth;
-				yc = yoff + r*tileHeight;
-				
-				// Only draw the tile if it is on screen, otherwise go back round the loop
-				if (xc+tileWidth < 0 || xc >= rect.x + rect.width) continue;
-				if (yc+tileHeight < 0 || yc >= rect.y + rect.height) continue;
-				g.drawImage(img,xc,yc,null);
+				g.drawImage(img, xoff + c*tileWidth, yoff + r*tileHeight, null);
 			}
-		}		
+		}
 	}
 }
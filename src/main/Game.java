@@ -2,18 +2,19 @@ package main;
 
 import java.awt.*;
 import java.awt.event.KeyEvent;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Random;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
+import javax.swing.JFrame;
 
 import game2D.*;
 
@@ -27,17 +28,58 @@ import game2D.*;
  * @version 1.0
  * @since 03/2022
  */
-@SuppressWarnings("serial")
-
-public class Game extends GameCore implements MouseListener{ 
+public class Game extends GameCore { 
 
 	//Sprites and tile map 
 	private Sprite player = null;
 	private Sprite asteroid;
 	private TileMap tmap = new TileMap();
+	private LevelLoader levels = new LevelLoader();
+	//Set when playing an endless generated level instead of the two set levels
+	private boolean endless = false;
+	private long levelSeed;
+	private Point tileHit = new Point();
 	private LinkedList<Sprite> parallaxBg = new LinkedList<>();
-	private ConcurrentLinkedQueue<Sprite> coins;
-	private ConcurrentLinkedQueue<Sprite> enemies;
+	private ArrayList<Sprite> coins = new ArrayList<>();
+	private ArrayList<Sprite> enemies = new ArrayList<>();
+	private ArrayList<EnemyTask> enemyTasks = new ArrayList<>();	//Scheduled tasks of the current enemies
+	//Hold the state of the coins and enemies side by side so they can be moved together
+	private EntityStore coinStore = new EntityStore(64);
+	private EntityStore enemyStore = new EntityStore(16);
+	//Coins and enemies are reused rather than made anew for each level
+	private Pool<Sprite> coinPool = new Pool<>(new Pool.Factory<Sprite>() {
+		public Sprite create() {
+			return new Sprite(coinStore, coinAnim);
+		}
+	});
+	private Pool<Sprite> enemyPool = new Pool<>(new Pool.Factory<Sprite>() {
+		public Sprite create() {
+			return new Sprite(enemyStore, enemyIdle);
+		}
+	});
+	//Broadphase for coin and enemy collisions, one cell per map tile
+	private SpatialHash coinHash = new SpatialHash(32, 32);
+	private SpatialHash enemyHash = new SpatialHash(32, 32);
+	private ArrayList<Sprite> coinsHit = new ArrayList<>();
+	private SpatialHash.QueryListener coinHit = new SpatialHash.QueryListener() {
+		public void found(Sprite c) {
+			coinsHit.add(c);
+		}
+	};
+	private SpatialHash.PairListener enemyBounce = new SpatialHash.PairListener() {
+		public void pair(Sprite a, Sprite b) {
+			if (a.getAnimationDefinition() == enemyDeath || b.getAnimationDefinition() == enemyDeath)
+				return;
+			//Only turn round if heading into each other, so a pair that overlaps walks apart
+			float closing = (b.getX() - a.getX()) * (b.getVelocityX() - a.getVelocityX());
+			if (closing < 0) {
+				a.setVelocityX(-a.getVelocityX());
+				a.setScale((float)-a.getScaleX(), 1);
+				b.setVelocityX(-b.getVelocityX());
+				b.setScale((float)-b.getScaleX(), 1);
+			}
+		}
+	};
 	
 	//Measurement variables for calculations 
 	private int jumpingCount = 2;
@@ -52,6 +94,7 @@ public class Game extends GameCore implements MouseListener{
 	private float playerMovementSpeed = 0.08f;
 	private final float enemyMovementSpeed = 0.05f;
 	private final float gravity = 0.001f;
+	private Random random = new Random();	//Coin placement, seeded so a recorded session can be replayed
 	
 	//Game state controllers 
 	private boolean keyLeft;
@@ -67,45 +110,190 @@ public class Game extends GameCore implements MouseListener{
 	
 	//Game resources (Images, animations and theme song)
 	private Image playBtn, background, audioBtn, muteBtn;
-	private Animation idle, run, jump, dead, enemySpawn, enemyIdle, enemyWalk, enemyAttack, 
-	enemyDeath, asteroidAnim, explosion, coinAnim;
+	private Animation idle, run, jump, dead, asteroidAnim, explosion;
+	//Shared by every enemy and coin, each of which keeps its own place in them
+	private AnimationDefinition enemySpawn, enemyIdle, enemyWalk, enemyAttack, enemyDeath, coinAnim;
 	private Sound music;
 	
+	//Scenes handed from update() to draw(), which runs on its own thread
+	private SnapshotBuffer<Scene> scenes = new SnapshotBuffer<>(new Scene(), new Scene(), new Scene());
+	private Scene frameScene;	//The scene the frame being drawn comes from, taken in beginFrame()
+	private Scene lastScene;
+	
+	//Dirty rectangle rendering, only what changed since the last scene is drawn again
+	private DirtyRegions spriteBounds = new DirtyRegions();		//Where sprites are in the latest scene
+	private DirtyRegions lastSpriteBounds = new DirtyRegions();	//Where they were in the one before
+	private boolean backdropMoved;
+	private int introFadeTicks = 100;	//The intro background fades in over about a second
+	
+	/**
+	 * Everything draw() needs from one tick of the game. Filled in by snapshot() on the
+	 * update thread so that the render thread never reads the live game state.
+	 */
+	private static class Scene {
+		gameStage state = gameStage.INTRO;
+		boolean soundOn, debugMode, playerDead;
+		int jumpingCount, level, score, offsetX, coinsRemaining;
+		float playerX, playerY;
+		TileMap map;
+		RenderList backdrop = new RenderList();
+		RenderList player = new RenderList();
+		RenderList asteroid = new RenderList();
+		RenderList enemies = new RenderList();
+		RenderList coins = new RenderList();
+	}
+	
 	/**
 	 * The obligatory main method that creates an instance of our class and starts
-	 * it running
+	 * it running. 
 	 * 
-	 * @param args The list of parameters this program might use (ignored)
+	 * <p> Passing <code>--headless [ticks]</code> runs the simulation with no window for the
+	 * given number of 10ms ticks (default 60000) using scripted input and prints how
+	 * fast it ran. Adding <code>--render</code> also draws every tick to an offscreen image.
+	 * <code>--fullscreen</code> runs the game in full screen mode where the display supports it.</p>
+	 * 
+	 * <p> <code>--record file</code> saves every tick's input to a file, and <code>--replay file</code>
+	 * plays such a file back headless as fast as possible, then prints how fast it ran along with
+	 * the frame timings. <code>--seed n</code> fixes the random seed, which is otherwise chosen at
+	 * random (or read from the file when replaying).</p>
+	 * 
+	 * @param args The list of parameters this program might use
 	 */
 	public static void main(String[] args) {
+		long headlessTicks = -1;
+		boolean render = false;
+		boolean fullScreen = false;
+		boolean endless = false;
+		String recordFile = null;
+		String replayFile = null;
+		long seed = System.nanoTime();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--headless")) {
+				headlessTicks = 60000;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+"))
+					headlessTicks = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--render")) {
+				render = true;
+			} else if (args[i].equals("--fullscreen")) {
+				fullScreen = true;
+			} else if (args[i].equals("--record") && i + 1 < args.length) {
+				recordFile = args[++i];
+			} else if (args[i].equals("--replay") && i + 1 < args.length) {
+				replayFile = args[++i];
+			} else if (args[i].equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--endless")) {
+				endless = true;
+			}
+		}
+		// Must be set before anything touches AWT
+		if (headlessTicks >= 0 || replayFile != null)
+			System.setProperty("java.awt.headless", "true");
+		
+		InputReplay replay = null;
+		try {
+			if (replayFile != null) {
+				replay = new InputReplay(replayFile);
+				seed = replay.getSeed();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not open recording: " + e.getMessage());
+			System.exit(1);
+		}
+		
 		Game gct = new Game();
+		gct.random.setSeed(seed);
+		gct.endless = endless;
+		gct.levelSeed = seed;
 		gct.init();
-		gct.run(true, screenWidth, screenHeight);
+		if (recordFile != null) {
+			try {
+				gct.setRecorder(new InputRecorder(recordFile, seed));
+			} catch (IOException e) {
+				System.err.println("Could not record to " + recordFile + ": " + e.getMessage());
+			}
+		}
+		if (headlessTicks < 0 && replay == null) {
+			gct.run(fullScreen, screenWidth, screenHeight);
+			return;
+		}
+		HeadlessRunner runner = new HeadlessRunner(gct);
+		runner.setTickMillis(gct.getTickMillis());
+		runner.setRendering(render);
+		runner.setInput(demoInput());
+		long taken = 0;
+		if (replay != null) {
+			try {
+				taken = runner.replay(replay);
+			} catch (IOException e) {
+				System.err.println("Replay stopped early: " + e.getMessage());
+			}
+			replay.close();
+		} else {
+			taken = runner.run(headlessTicks);
+		}
+		System.out.println(String.format("Ran %d ticks in %.1f ms (%.0f ticks/s)", 
+				runner.getTicks(), taken / 1000000.0, runner.getTicksPerSecond()));
+		System.exit(0);
+	}
+	
+	/**
+	 * Scripted input for headless runs. Starts the game, then runs back and forth
+	 * across the level jumping regularly, and clicks to restart whenever it dies.
+	 */
+	private static HeadlessRunner.Input demoInput() {
+		return new HeadlessRunner.Input() {
+			public void tick(HeadlessRunner runner, long tick) {
+				if (tick == 0) {
+					runner.click(screenWidth / 2, 250);
+					return;
+				}
+				if (tick % 800 == 1) {
+					runner.releaseKey(KeyEvent.VK_LEFT);
+					runner.pressKey(KeyEvent.VK_RIGHT);
+				} else if (tick % 800 == 401) {
+					runner.releaseKey(KeyEvent.VK_RIGHT);
+					runner.pressKey(KeyEvent.VK_LEFT);
+				}
+				if (tick % 90 == 0)
+					runner.pressKey(KeyEvent.VK_SPACE);
+				if (tick % 500 == 0)
+					runner.click(screenWidth / 2, 250);
+			}
+		};
 	}
 	/**
 	 * Initialise the class, e.g. set up variables, load images, create animations,
 	 * register event handlers
 	 */
 	private void init() {
-		//Frame and tile map set up
-		tmap.loadMap("maps", "map.txt");
-		setSize(tmap.getPixelWidth() / 4, tmap.getPixelHeight());
-		setVisible(true);
-		setResizable(false);
-		setDefaultCloseOperation(EXIT_ON_CLOSE);
-		setTitle("Dino Jump");
-		setLocationRelativeTo(null);
-		addMouseListener(this);
-		ImageIcon img = new ImageIcon("images/interface/gameCover.png");
-		setIconImage(img.getImage());
+		//Frame set up, the island tiles are solid in every level's map
+		levels.setSolidCharacters("lmr");
+		setSize(screenWidth, screenHeight);
+		// Physics is tuned per millisecond so run it in 10ms ticks whatever the frame rate
+		setFixedTimestep(true);
+		setTickRate(100);
+		setThreadedRendering(true);
+		setDirtyRendering(true);
+		setReportOnExit(true);
+		JFrame window = getWindow();
+		if (window != null) {
+			window.setResizable(false);
+			window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			window.setTitle("Dino Jump");
+			window.setLocationRelativeTo(null);
+			ImageIcon img = new ImageIcon("images/interface/gameCover.png");
+			window.setIconImage(img.getImage());
+		}
 		
 		//Play button that is shown when player dies
 		playBtn = null;
 		try {
 			playBtn = ImageIO.read(new File("images/interface/PlayButton.png"));
-			playBtn = playBtn.getScaledInstance(screenWidth/3, screenHeight/4, Image.SCALE_SMOOTH);
+			//Scaled instances are produced in the background, ImageIcon waits until they are complete
+			playBtn = new ImageIcon(playBtn.getScaledInstance(screenWidth/3, screenHeight/4, Image.SCALE_SMOOTH)).getImage();
 			background = ImageIO.read(new File("images/interface/background.jpg"));
-			background = background.getScaledInstance(screenWidth, screenHeight, Image.SCALE_SMOOTH);	
+			background = new ImageIcon(background.getScaledInstance(screenWidth, screenHeight, Image.SCALE_SMOOTH)).getImage();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -129,16 +317,12 @@ public class Game extends GameCore implements MouseListener{
 		player = new Sprite(idle);
 		
 		// Enemy character from https://eddies-workshop.itch.io/seeker
-		enemySpawn = new Animation();
-		enemyIdle = new Animation();
-		enemyWalk = new Animation();
-		enemyAttack = new Animation();
-		enemyDeath = new Animation();
-		enemySpawn.loadAnimationFromSheet("images/characters/Skeleton_Seeker/spawn.png", 1, 11, 300);
-		enemyIdle.loadAnimationFromSheet("images/characters/Skeleton_Seeker/idle.png", 1, 6, 100);
-		enemyWalk.loadAnimationFromSheet("images/characters/Skeleton_Seeker/walk.png", 1, 6, 150);
-		enemyAttack.loadAnimationFromSheet("images/characters/Skeleton_Seeker/attack.png", 1, 10, 100);
-		enemyDeath.loadAnimationFromSheet("images/characters/Skeleton_Seeker/death.png", 1, 5, 200);
+		enemySpawn = AnimationDefinition.fromSheet("images/characters/Skeleton_Seeker/spawn.png", 1, 11, 300);
+		enemyIdle = AnimationDefinition.fromSheet("images/characters/Skeleton_Seeker/idle.png", 1, 6, 100);
+		enemyWalk = AnimationDefinition.fromSheet("images/characters/Skeleton_Seeker/walk.png", 1, 6, 150);
+		enemyAttack = AnimationDefinition.fromSheet("images/characters/Skeleton_Seeker/attack.png", 1, 10, 100);
+		enemyDeath = AnimationDefinition.fromSheet("images/characters/Skeleton_Seeker/death.png", 1, 5, 200);
+		coinAnim = AnimationDefinition.fromSheet("images/items/coin/coin.png", 6, 1, 100);
 		
 		//Astroid image from https://www.kindpng.com/imgv/wmmowx_pixel-art-asteroid-sprite-hd-png-download/
 		asteroidAnim = new Animation();
@@ -195,6 +379,21 @@ public class Game extends GameCore implements MouseListener{
 		initialiseGame();
 	}
 
+	/**
+	 * @param level - The level number, starting at 1
+	 * @return The name of the level's map file, or null if there is no such level
+	 */
+	private static String levelMap(int level) {
+		switch(level) {
+		case 1:
+			return "map.txt";
+		case 2:
+			return "map2.txt";
+		default:
+			return null;
+		}
+	}
+	
 	/**
 	 * Method that resets game states and variables, loads level and positions 
 	 * new sprites. Called when game is created and restarted.
@@ -202,12 +401,29 @@ public class Game extends GameCore implements MouseListener{
 	private void initialiseGame() {
 		if(level == 1) {
 			score = 0;
-			tmap.loadMap("maps", "map.txt");
-		}else if(level == 2) {
-			tmap.loadMap("maps", "map2.txt");
+		}
+		if(endless) {
+			//A new generated level from the same seed, so restarts play the same level
+			if (tmap instanceof StreamingTileMap)
+				((StreamingTileMap)tmap).close();
+			tmap = new StreamingTileMap(new LevelGenerator(levelSeed, "maps"), screenWidth);
+			tmap.setSolidCharacters("lmr");
+		} else if(levelMap(level) != null) {
+			//Swap in the level's map, which was preloaded while the last level played
+			TileMap map = levels.take("maps", levelMap(level));
+			if (map != null) {
+				tmap.dispose();
+				tmap = map;
+			}
+			//Have every map this level can lead to ready: its own again for a restart,
+			//and the next level's, or level 1's after the last level
+			levels.preload("maps", levelMap(level));
+			levels.preload("maps", levelMap(level + 1) != null ? levelMap(level + 1) : levelMap(1));
 		} else {
 			state = gameStage.FINISHED;
 		}
+		coinHash.setCellSize(tmap.getTileWidth(), tmap.getTileHeight());
+		enemyHash.setCellSize(tmap.getTileWidth(), tmap.getTileHeight());
 		//Reset game states
 		keyLeft = false;
 		keyRight = false;
@@ -218,28 +434,25 @@ public class Game extends GameCore implements MouseListener{
 		//Reset camera position and number of enemies spawned
 		numberSpawned = 0;
 		offsetX = 0;
+		tmap.setView(0, screenWidth);
 		
-		// ConcurrentLinked queue is used to avoid ConcurrentModificationException
-		coins = new ConcurrentLinkedQueue<Sprite>();
-		for (int i = 0; i < (int)tmap.getPixelWidth()/100; i++) { 
-			coinAnim = new Animation();
-			coinAnim.loadAnimationFromSheet("images/items/coin/coin.png", 6, 1, 100);
-			Sprite coin = new Sprite(coinAnim);
-			int x = 100 * i; //Every 100 pixels place a coin
-			int y = 50 + (int)(Math.random() * (screenHeight - 100));
-			//While coin is not placed within an empty tile, reposition the y axis of coin
-			while(tmap.getTile((int)x/tmap.getTileWidth(),(int)y/tmap.getTileHeight()).getCharacter() != '.') {
-				y = 50 + (int)(Math.random() * (screenHeight - 100));
+		// Only the game loop thread touches these lists, so plain lists are safe
+		clearCoins();
+		//Endless levels place their coins as their chunks come into range instead
+		if (!(tmap instanceof StreamingTileMap)) {
+			for (int i = 0; i < (int)tmap.getPixelWidth()/100; i++) { 
+				int x = 100 * i; //Every 100 pixels place a coin
+				int y = 50 + (int)(random.nextDouble() * (screenHeight - 100));
+				//While coin is not placed within an empty tile, reposition the y axis of coin
+				while(tmap.getTileChar(x/tmap.getTileWidth(), y/tmap.getTileHeight()) != '.') {
+					y = 50 + (int)(random.nextDouble() * (screenHeight - 100));
+				}
+				coins.add(makeCoin(x, y));
 			}
-			coin.setX(x);
-			coin.setY(y);
-			coin.show();
-			coins.add(coin);
 		}
 		//Reset and create player controlled sprite
-		if(player != null)
-			player = null;
-		player = new Sprite(idle);
+		player.reset();
+		player.setAnimation(idle);
 		player.setPosition(50, screenHeight - 100);
 		player.setVelocityX(0);
 		player.setVelocityY(0);
@@ -248,16 +461,215 @@ public class Game extends GameCore implements MouseListener{
 		asteroid.setAnimation(asteroidAnim);
 		asteroid.hide();
 		//Reset enemy players
-		if(enemies != null)
-			enemies.clear();
-		enemies = new ConcurrentLinkedQueue<Sprite>();
-		for(int i = 0; i < numbOfEnemies; i++) {
-			Sprite enemy = new Sprite(enemyIdle);
-			enemy.setPosition(400 * (i+1), screenHeight - 76);
-			enemySpawn(enemy); 
-			enemies.add(enemy);
+		clearEnemies();
+		for(int i = 0; i < numbOfEnemies; i++)
+			makeEnemy(400 * (i+1));
+		if (tmap instanceof StreamingTileMap)
+			((StreamingTileMap)tmap).setChunkListener(new ChunkSpawner(new LevelGenerator(levelSeed, null)));
+	}
+	
+	/**
+	 * Creates a coin at 'x,y' on screen.
+	 * @param x - Horizontal location on screen
+	 * @param y - Vertical location on screen
+	 * @return The new coin
+	 */
+	private Sprite makeCoin(int x, int y) {
+		Sprite coin = coinPool.acquire();
+		coin.reset(coinAnim);
+		coin.setX(x);
+		coin.setY(y);
+		coin.show();
+		return coin;
+	}
+	
+	/**
+	 * Creates an enemy at 'x' on screen, standing on the ground ready to spawn in,
+	 * and adds it to the enemies.
+	 * @param x - Horizontal location on screen
+	 * @return The new enemy
+	 */
+	private Sprite makeEnemy(float x) {
+		Sprite enemy = enemyPool.acquire();
+		enemy.reset(enemyIdle);
+		enemy.setPosition(x, screenHeight - 76);
+		enemySpawn(enemy);
+		enemies.add(enemy);
+		return enemy;
+	}
+	
+	/**
+	 * Hides a coin and gives it back to the pool. It must already be out of the coins list.
+	 * @param c - The coin to remove
+	 */
+	private void removeCoin(Sprite c) {
+		c.hide();
+		coinPool.release(c);
+	}
+	
+	/**
+	 * Cancels an enemy's scheduled tasks, hides it and gives it back to the pool.
+	 * It must already be out of the enemies list.
+	 * @param e - The enemy to remove
+	 */
+	private void removeEnemy(Sprite e) {
+		cancelEnemyTasks(e);
+		e.hide();
+		enemyPool.release(e);
+	}
+	
+	/**
+	 * Removes every coin and empties the coins list.
+	 */
+	private void clearCoins() {
+		for (Sprite c : coins)
+			removeCoin(c);
+		coins.clear();
+	}
+	
+	/**
+	 * Removes every enemy and empties the enemies list.
+	 */
+	private void clearEnemies() {
+		for (Sprite e : enemies)
+			removeEnemy(e);
+		enemies.clear();
+	}
+	
+	/**
+	 * Places the coins and enemies of an endless level's chunks as they come
+	 * into range of the camera, and removes them once the chunk is left behind.
+	 * Each coin or enemy has a slot in its chunk, in the order the generator
+	 * reports them. A chunk that comes back into range skips the slots whose
+	 * coin was collected, whose enemy was killed, or whose sprite is still
+	 * about elsewhere, so walking back and forth cannot farm them.
+	 */
+	private class ChunkSpawner implements StreamingTileMap.ChunkListener, LevelGenerator.SpawnListener {
+		private LevelGenerator generator;
+		private HashMap<Integer, BitSet> taken = new HashMap<>();	//Slots of each chunk not to spawn again
+		private IdentityHashMap<Sprite, Long> slots = new IdentityHashMap<>();	//Chunk and slot each sprite came from
+		private int chunk;	//The chunk being spawned
+		private int slot;	//Its next slot
+		
+		ChunkSpawner(LevelGenerator generator) {
+			this.generator = generator;
+		}
+		
+		public void chunkEntered(int index) {
+			chunk = index;
+			slot = 0;
+			generator.spawns(index, this);
+		}
+		
+		public void chunkLeft(int index) {
+			//Remove whatever is within the chunk, on screen coordinates
+			int chunkPixels = generator.getChunkWidth() * generator.getTileWidth();
+			int left = index * chunkPixels + offsetX;
+			for (Iterator<Sprite> it = coins.iterator(); it.hasNext();) {
+				Sprite c = it.next();
+				if (c.getX() >= left && c.getX() < left + chunkPixels) {
+					it.remove();
+					free(c);
+					removeCoin(c);
+				}
+			}
+			for (Iterator<Sprite> it = enemies.iterator(); it.hasNext();) {
+				Sprite e = it.next();
+				if (e.getX() >= left && e.getX() < left + chunkPixels) {
+					it.remove();
+					//A dead enemy keeps its slot taken so it stays dead
+					if (e.getAnimationDefinition() != enemyDeath)
+						free(e);
+					else
+						slots.remove(e);
+					removeEnemy(e);
+				}
+			}
+		}
+		
+		public void coin(int x, int y) {
+			if (take())
+				coins.add(spawned(makeCoin(x * tmap.getTileWidth() + offsetX, y * tmap.getTileHeight())));
+		}
+		
+		public void enemy(int x, int y) {
+			if (!take())
+				return;
+			Sprite enemy = spawned(makeEnemy(x * tmap.getTileWidth() + offsetX));
+			//The first wave spawns in together, later enemies as they are reached
+			if (enemySpawnedIn)
+				enemySpawnIn(enemy);
+		}
+		
+		/**
+		 * Takes the next slot of the chunk being spawned.
+		 * @return False if the slot is already taken and nothing should spawn in it
+		 */
+		private boolean take() {
+			BitSet chunkTaken = taken.get(chunk);
+			if (chunkTaken == null) {
+				chunkTaken = new BitSet();
+				taken.put(chunk, chunkTaken);
+			}
+			int s = slot++;
+			if (chunkTaken.get(s))
+				return false;
+			chunkTaken.set(s);
+			return true;
+		}
+		
+		/**
+		 * Records that 's' came from the slot just taken. A coin that is collected
+		 * leaves its record behind, and with it its slot taken, until the sprite is
+		 * reused for another slot.
+		 * @param s - The coin or enemy spawned
+		 * @return 's'
+		 */
+		private Sprite spawned(Sprite s) {
+			slots.put(s, ((long)chunk << 32) | (slot - 1));
+			return s;
+		}
+		
+		/**
+		 * Lets the slot 's' came from spawn again, as 's' is being removed unused.
+		 * @param s - The coin or enemy being removed
+		 */
+		private void free(Sprite s) {
+			Long key = slots.remove(s);
+			if (key != null)
+				taken.get((int)(key >> 32)).clear((int)(long)key);
 		}
 	}
+	
+	/**
+	 * Cancels the scheduled tasks of an enemy, e.g. once it has been removed.
+	 * @param e - The enemy whose tasks are cancelled
+	 */
+	private void cancelEnemyTasks(Sprite e) {
+		for (int i = enemyTasks.size() - 1; i >= 0; i--) {
+			if (enemyTasks.get(i).enemy == e)
+				cancel(enemyTasks.remove(i));
+		}
+	}
+	
+	/**
+	 * A scheduled action for one enemy, cancelled if the enemy is removed first.
+	 */
+	private abstract class EnemyTask implements Runnable {
+		final Sprite enemy;
+		
+		EnemyTask(Sprite enemy) {
+			this.enemy = enemy;
+		}
+	}
+	
+	/**
+	 * Schedules 'task' like schedule(), keeping it so it can be cancelled along with its enemy.
+	 */
+	private void scheduleEnemyTask(EnemyTask task, long delay, long period) {
+		enemyTasks.add(task);
+		schedule(task, delay, period);
+	}
 	/**
 	 * Sets animation to enemySpawn, speed to 0 and displays enemy.
 	 * @param s - Takes in a singular Sprite 
@@ -278,20 +690,20 @@ public class Game extends GameCore implements MouseListener{
 		enemy.playAnimation();
 		enemy.pauseAnimationAtFrame(10);
 		enemy.setScale(-1f, 1f);
-		TimerTask task = new TimerTask() {
+		scheduleEnemyTask(new EnemyTask(enemy) {
 			public void run() {
+				enemyTasks.remove(this);
 				//Fixes an error where player comes back alive if killed before movement
-				if(enemy.getAnimation() != enemyDeath) {
+				if(enemy.getAnimationDefinition() != enemyDeath) {
 					stalkPlayer(enemy);
 					enemy.setAnimation(enemyWalk);
 				}
 			}
-		};
-		Timer timer = new Timer("Timer");
-		long delay = 3000l;
-		timer.schedule(task, delay);
+		}, 3000l, 0);
 		numberSpawned++;
-		if(numberSpawned == numbOfEnemies) {
+		//The first wave is every enemy there at the start, which in an endless level
+		//includes those of the chunks already in view as well as the usual three
+		if(enemySpawnedIn == false && numberSpawned >= enemies.size()) {
 			enemySpawnedIn = true;
 			soundControl(new Sound("sounds/roar.wav"));
 		}
@@ -302,6 +714,7 @@ public class Game extends GameCore implements MouseListener{
 	 * @param elapsed The elapsed time between this call and the previous call of elapsed
 	 */
 	public void update(long elapsed) {
+		tmap.update(elapsed);
 		if(state == gameStage.PLAY) {
 			player.setAnimationSpeed(1.0f);
 			player.update(elapsed);
@@ -310,7 +723,7 @@ public class Game extends GameCore implements MouseListener{
 					enemySpawnIn(enemy);
 				}	
 				//If enemy isn't dead and hitbox is colliding with player
-				if(enemy.getAnimation() != enemyDeath && boundingBoxCollision(player, enemy) == true) {
+				if(enemy.getAnimationDefinition() != enemyDeath && boundingBoxCollision(player, enemy) == true) {
 					//Check player is higher than enemy and centred on head
 					if(player.getY() < enemy.getY() && player.getX() > enemy.getX() && 
 					   player.getX() + player.getWidth()/2 < enemy.getX() + enemy.getWidth()) {
@@ -323,20 +736,14 @@ public class Game extends GameCore implements MouseListener{
 					checkTileCollision(enemy, tmap);
 				}
 				handleScreenEdge(enemy, tmap, false);
-				
-				//Check if enemies are colliding with other enemies and redirect their direction
-				for(Sprite enemy2 : enemies) {
-					if(boundingBoxCollision(enemy, enemy2)) {
-						if(enemy.getAnimation() != enemyDeath && enemy2.getAnimation() != enemyDeath) {
-							enemy.setVelocityX(-enemy.getVelocityX());
-							enemy.setScale((float)-enemy.getScaleX(), 1);
-							enemy2.setVelocityX(-enemy2.getVelocityX());
-							enemy2.setScale((float)-enemy2.getScaleX(), 1);
-						}
-					}
-				}
-				enemy.update(elapsed);
 			}
+			//Check if enemies are colliding with other enemies and redirect their direction
+			enemyHash.clear();
+			for (Sprite enemy : enemies)
+				enemyHash.add(enemy);
+			enemyHash.findPairs(enemyBounce);
+			for (Sprite enemy : enemies)
+				enemy.update(elapsed);
 		//If level complete call asteroid animation
 		if(levelComplete) {
 			asteroidControl(elapsed);
@@ -350,18 +757,192 @@ public class Game extends GameCore implements MouseListener{
 		// finally check for any collisions that may have occurred
 		handleScreenEdge(player, tmap, true);
 		checkTileCollision(player, tmap);
+		scrollParallax();
+		followPlayer();
+		}
+	}
+	
+	/**
+	 * Moves the parallax backgrounds in the opposite direction to the player.
+	 * Sky and moon stay put, the mountains move slowly and the desert moves faster.
+	 */
+	private void scrollParallax() {
+		// If both are pressed background does not move as neither does Sprite
+		if (!(keyRight || keyLeft) || (keyRight && keyLeft) || screenEdge)
+			return;
+		// Used to add movement direction to background
+		int direction;
+		if (keyRight) direction = 1;
+		else direction = -1;
+		int backGroundNum = 1;
+		backdropMoved = true;
+		// For each background (2 Sprites are required for each of the 4 images)
+		for (Sprite bg : parallaxBg) {
+			// Sky and moon background do not move.
+			if (backGroundNum > 4) {
+				if (backGroundNum > 6) {
+					// Parallax background, Desert moves faster.
+					bg.setX(bg.getX() - (4f * direction));
+				} else {
+					// Parallax background, mountains move slower.
+					bg.setX(bg.getX() - (1f * direction));
+				}
+				if (keyRight) {
+					/* If character moves right and background image position goes fully off screen
+					 * left then set it to start after the second duplicate image on screen Screen
+					 * width has an additional number in setX to avoid gap in drawing. */
+					if (bg.getX() < -screenWidth)
+						bg.setX(screenWidth - 11);
+				} else {
+					// Same applies here except opposite direction
+					if (bg.getX() > screenWidth)
+						bg.setX(-screenWidth + 10);
+				}
+			}
+			backGroundNum += 1;
 		}
 	}
 	
 	/**
-	 * Draws the current state of the game
+	 * Mario centred camera implementation. Once the player reaches the middle of the
+	 * screen they are held there and the map, enemies, coins and asteroid are shifted instead.
+	 */
+	private void followPlayer() {
+		int cameraMovementVal = 0;		
+		//If player touches middle of the screen from left then change offset and stop character moving
+		if (player.getX() > screenWidth / 2 - player.getWidth()) {
+			if (player.getScaleX() == 1f) { //Check direction
+				if(offsetX > (-tmap.getPixelWidth() + screenWidth)) {
+					player.setX(screenWidth / 2 - player.getWidth());
+					cameraMovementVal = 1 + (int) (player.getVelocityX() * 20);
+					offsetX = offsetX - cameraMovementVal;
+				}
+			}
+		} else {
+			//If player touches middle of the screen plus width from
+			//right then change offset and stop character moving
+			if (player.getX() < screenWidth / 2 - player.getWidth()) {
+				if (player.getScaleX() == -1f && offsetX < 0) { //Check direction
+					player.setX(screenWidth / 2 - player.getWidth());
+					cameraMovementVal =  -1 + (int) (player.getVelocityX() * 20);
+					offsetX = offsetX + (offsetX - (cameraMovementVal + offsetX)); 
+				}
+			}
+		}
+		asteroid.setRotation(rotation);
+		asteroid.setX(asteroid.getX() + (-cameraMovementVal));
+		enemyStore.shiftX(-cameraMovementVal);
+		coinStore.shiftX(-cameraMovementVal);
+		// Lets a streaming map load the chunks coming into view
+		tmap.setView(-offsetX, screenWidth);
+	}
+	
+	/**
+	 * Adds the use of the coin and enemy pools to the report printed at exit.
+	 */
+	protected String getReport() {
+		return "Coins: " + coinPool + "\nEnemies: " + enemyPool;
+	}
+	
+	/**
+	 * Copies what draw() needs from the current state of the game into the next
+	 * scene and publishes it. Called on the update thread after each tick.
+	 */
+	protected void snapshot() {
+		Scene s = scenes.getWriteBuffer();
+		s.state = state;
+		s.soundOn = isSoundOn;
+		s.debugMode = debugMode;
+		s.playerDead = playerDead;
+		s.jumpingCount = jumpingCount;
+		s.level = level;
+		s.score = score;
+		s.offsetX = offsetX;
+		s.map = tmap;
+		s.backdrop.clear();
+		s.player.clear();
+		s.asteroid.clear();
+		s.enemies.clear();
+		s.coins.clear();
+		if (player != null) {
+			s.playerX = player.getX();
+			s.playerY = player.getY();
+			s.coinsRemaining = coins.size();
+			for (Sprite bg : parallaxBg) s.backdrop.add(bg);
+			s.player.add(player);
+			s.asteroid.add(asteroid);
+			for (Sprite enemy : enemies) s.enemies.add(enemy, enemy.getAnimationDefinition() == enemyDeath ? 1 : 0);
+			for (Sprite c : coins) s.coins.add(c);
+		}
+		markDamage(s);
+		scenes.publish();
+	}
+	
+	/**
+	 * Marks the parts of the screen that differ between the last scene and 's' so only
+	 * they are drawn again. Anything that moves the whole view redraws the whole screen,
+	 * otherwise just the sprites (where they were and where they are now), changed tiles
+	 * and any text that changed are redrawn.
+	 */
+	private void markDamage(Scene s) {
+		Scene last = lastScene;
+		lastScene = s;
+		
+		DirtyRegions t = lastSpriteBounds;
+		lastSpriteBounds = spriteBounds;
+		spriteBounds = t;
+		spriteBounds.clear();
+		s.player.addBounds(spriteBounds);
+		s.asteroid.addBounds(spriteBounds);
+		s.enemies.addBounds(spriteBounds);
+		s.coins.addBounds(spriteBounds);
+		if (s.player.size() > 0)
+			spriteBounds.add((int)s.playerX - 4, (int)s.playerY - 40, 100, 28); //Jump count above the player
+		
+		DirtyRegions tiles = tmap.getDamage();
+		markDirty(tiles, s.offsetX, 0);
+		tiles.clear();
+		
+		boolean moved = backdropMoved;
+		backdropMoved = false;
+		if (s.state == gameStage.INTRO && introFadeTicks > 0) {
+			//The background is drawn translucently over the last frame until it builds up
+			introFadeTicks--;
+			markAllDirty();
+		} else if (last == null || last.state != s.state || last.soundOn != s.soundOn || s.debugMode 
+				|| last.debugMode != s.debugMode || last.playerDead != s.playerDead || last.level != s.level
+				|| last.offsetX != s.offsetX || last.map != s.map || moved) {
+			markAllDirty();
+		} else if (s.state == gameStage.PLAY) {
+			if (last.score != s.score || last.coinsRemaining != s.coinsRemaining) {
+				markDirty(0, 30, screenWidth, 26); //Level and score
+				markDirty(0, screenHeight - 30, screenWidth, 30); //Coins remaining
+			}
+			markDirty(lastSpriteBounds, 0, 0);
+			markDirty(spriteBounds, 0, 0);
+		}
+	}
+	
+	/**
+	 * Takes the latest scene published by snapshot() for the frame about to be drawn.
+	 */
+	public void beginFrame() {
+		frameScene = scenes.acquire();
+	}
+	
+	/**
+	 * Draws the scene taken by beginFrame(). This may run on a different
+	 * thread from update(), so it must not touch the live game state.
 	 */
 	public void draw(Graphics2D g) {
-		//Makes it so nothing renders out of players view so fps is higher
-		Rectangle clip = new Rectangle(0,0,screenWidth, screenHeight);
-		g.setClip(clip);
+		Scene s = frameScene;
+		if (s == null)
+			s = frameScene = scenes.acquire();
+		//Makes it so nothing renders out of players view so fps is higher. This narrows rather
+		//than replaces the clip as only the dirty parts of the screen may be being drawn.
+		g.clipRect(0, 0, screenWidth, screenHeight);
 
-		if(state == gameStage.INTRO) {
+		if(s.state == gameStage.INTRO) {
 			//Java AWT improved rendering so text is more readable
 			Map<?, ?> desktopHints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
 			if (desktopHints != null) {
@@ -378,7 +959,7 @@ public class Game extends GameCore implements MouseListener{
 			g.drawString(title, x, y);
 			g.setColor(Color.WHITE);
 			g.drawString(title, x+3, y+3);
-			g.setStroke(new BasicStroke(WIDTH));
+			g.setStroke(new BasicStroke(1));
 			x = getXcenterImage(playBtn);
 			g.drawImage(playBtn, x, 200, null);
 			g.setColor(Color.BLACK);
@@ -389,103 +970,33 @@ public class Game extends GameCore implements MouseListener{
 			g.setColor(Color.WHITE);
 			g.drawString(title, x + 1, screenHeight-29);
 			//Toggle sound button appearance 
-			if(isSoundOn) {
+			if(s.soundOn) {
 				g.drawImage(audioBtn, screenWidth - 100, 40, null);
 			}else {
 				g.drawImage(muteBtn, screenWidth - 100, 40, null);
 			}
-		} else if(state == gameStage.PLAY){
+		} else if(s.state == gameStage.PLAY){
 			g.setFont(new Font("Verdana", Font.BOLD, 16));
 			g.fillRect(0, 0, getWidth(), getHeight());
 	
-			int backGroundNum = 1;
-			// Used to add movement direction to background
-			int direction;
-			if (keyRight) direction = 1;
-			else direction = -1;
-			// For each background (2 Sprites are required for each of the 4 images)
-			for (Sprite bg : parallaxBg) {
-				bg.drawTransformed(g);
-				// Check character is moving left or right
-				if (keyRight || keyLeft) {
-					// If both are pressed background does not move as neither does Sprite
-					if (!screenEdge) {
-						if (keyRight && keyLeft)
-							continue;
-						// Sky and moon background do not move.
-						if (backGroundNum > 4) {
-							if (backGroundNum > 6) {
-								// Parallax background, Desert moves faster.
-								bg.setX(bg.getX() - (4f * direction));
-							} else {
-								// Parallax background, mountains move slower.
-								bg.setX(bg.getX() - (1f * direction));
-							}
-							if (keyRight) {
-								/* If character moves right and background image position goes fully off screen
-								 * left then set it to start after the second duplicate image on screen Screen
-								 * width has an additional number in setX to avoid gap in drawing. */
-								if (bg.getX() < -screenWidth)
-									bg.setX(screenWidth - 11);
-							} else {
-								// Same applies here except opposite direction
-								if (bg.getX() > screenWidth)
-									bg.setX(-screenWidth + 10);
-							}
-	
-						}
-						backGroundNum += 1;
-						continue;
-					}
-				}
-			}
-
-			//Mario centred camera implementation 
-			int cameraMovementVal = 0;		
-			//If player touches middle of the screen from left then change offset and stop character moving
-			if (player.getX() > screenWidth / 2 - player.getWidth()) {
-				if (player.getScaleX() == 1f) { //Check direction
-					if(offsetX > (-tmap.getPixelWidth() + screenWidth)) {
-						player.setX(screenWidth / 2 - player.getWidth());
-						cameraMovementVal = 1 + (int) (player.getVelocityX() * 20);
-						offsetX = offsetX - cameraMovementVal;
-					}
-				}
-			} else {
-				//If player touches middle of the screen plus width from
-				//right then change offset and stop character moving
-				if (player.getX() < screenWidth / 2 - player.getWidth()) {
-					if (player.getScaleX() == -1f && offsetX < 0) { //Check direction
-						player.setX(screenWidth / 2 - player.getWidth());
-						cameraMovementVal =  -1 + (int) (player.getVelocityX() * 20);
-						offsetX = offsetX + (offsetX - (cameraMovementVal + offsetX)); 
-					}
-				}
-			}
+			s.backdrop.draw(g);
+			
 			//Displays jumping count above players head in colour code
-			if(jumpingCount != 0) g.setColor(Color.GREEN);
+			if(s.jumpingCount != 0) g.setColor(Color.GREEN);
 			else g.setColor(Color.RED);
-			g.drawString(jumpingCount + " Jumps", player.getX(), player.getY() - 20);
+			g.drawString(s.jumpingCount + " Jumps", s.playerX, s.playerY - 20);
 			
-			//Draws player, updates asteroid and enemies position
-			player.drawTransformed(g);
-			asteroid.setRotation(rotation);
-			asteroid.drawTransformed(g);
-			asteroid.setX(asteroid.getX() + (-cameraMovementVal));
-			for (Sprite enemy : enemies) {
-				enemy.setX(enemy.getX()  + (-cameraMovementVal));
-				enemy.drawTransformed(g);
-			}
-			//Draw tile map with offset caused by camera movement maths above and update coins
-			tmap.draw(g, offsetX, 0);
-			for (Sprite c : coins) {
-				c.setX(c.getX() + (-cameraMovementVal));
-				c.drawTransformed(g);
-			}
+			//Draws player, asteroid and enemies
+			s.player.draw(g);
+			s.asteroid.draw(g);
+			s.enemies.draw(g);
+			//Draw tile map with offset caused by camera movement and the coins
+			s.map.draw(g, s.offsetX, 0);
+			s.coins.draw(g);
 			
 			// Show score and status information
-			String msg = String.format("Score: %d", score / 100);
-			String msg2 = "Level " + level;
+			String msg = String.format("Score: %d", s.score / 100);
+			String msg2 = "Level " + s.level;
 			g.setColor(Color.BLACK);
 			g.drawString(msg2, getXcenteredText(msg2,g) + 3, 50);
 			g.drawString(msg, screenWidth - 123, 50);
@@ -493,33 +1004,44 @@ public class Game extends GameCore implements MouseListener{
 			g.drawString(msg2, getXcenteredText(msg2,g), 50);
 			g.drawString(msg, screenWidth - 120, 50);
 			//Debug mode activated by pressing 1 
-			if (debugMode) {
+			if (s.debugMode) {
 				g.setColor(Color.BLACK);
 				g.drawString("DEBUG MODE", getXcenteredText("DEBUG MODE", g), screenHeight-10);
 				g.setColor(Color.white);
-				player.drawBoundingCircle(g);
+				for (int i = 0; i < s.player.size(); i++) {
+					s.player.drawBoundingCircle(g, i);
+				}
 				String debug = "FPS: " + (int) getFPS();
 				g.drawString(debug, 40, 50);
-				g.drawString("Camera:" + offsetX, screenWidth/2, screenHeight/2);
-				g.drawString("X:" + (int) (player.getX() + (-offsetX)) + ", Y:" + (int) player.getY(), player.getX(), player.getY());
-				for (Sprite c : coins) {
-					c.drawBoundingCircle(g);
+				//Per phase frame timings over the last second, to see which phase blows the budget
+				FrameStats stats = getFrameStats();
+				g.setFont(g.getFont().deriveFont(Font.PLAIN, 11));
+				for (int phase = 0; phase < FrameStats.getPhaseCount(); phase++) {
+					g.drawString(stats.summary(phase), 40, 70 + phase * 14);
+				}
+				g.setFont(g.getFont().deriveFont(Font.BOLD, 16));
+				g.drawString("Camera:" + s.offsetX, screenWidth/2, screenHeight/2);
+				g.drawString("X:" + (int) (s.playerX + (-s.offsetX)) + ", Y:" + (int) s.playerY, s.playerX, s.playerY);
+				for (int i = 0; i < s.coins.size(); i++) {
+					s.coins.drawBoundingCircle(g, i);
 				}
-				for (Sprite enemy : enemies) {
-					if(enemy.getAnimation() == enemyDeath)
+				for (int i = 0; i < s.enemies.size(); i++) {
+					if(s.enemies.getFlag(i) == 1)
 						g.setColor(Color.white); //If enemy dead, no longer hostile so white box
 					else
 						g.setColor(Color.red); //Enemy is alive, red box to show danger
-					enemy.drawBoundingBox(g);
-					g.drawString("X:" + (int) (enemy.getX() + (-offsetX)) + ", Y:" + (int) enemy.getY(), enemy.getX(), enemy.getY());
+					s.enemies.drawBoundingBox(g, i);
+					float ex = s.enemies.getX(i);
+					float ey = s.enemies.getY(i);
+					g.drawString("X:" + (int) (ex + (-s.offsetX)) + ", Y:" + (int) ey, ex, ey);
 				}
 				//Mario movement line, character cannot pass point till end of map
 				g.drawLine(screenWidth/2, 0, screenWidth/2, screenHeight);
 			} else {
 				//If debug mode is off then draw coins remaining whilst alive
 				g.setColor(Color.black);
-				if(playerDead == false) {
-					msg = "Remaining coins: " + coins.size();
+				if(s.playerDead == false) {
+					msg = "Remaining coins: " + s.coinsRemaining;
 					g.drawString(msg, getXcenteredText(msg,g)-2, screenHeight-10);
 					g.setColor(Color.white);
 					g.drawString(msg, getXcenteredText(msg,g), screenHeight-10);
@@ -531,7 +1053,7 @@ public class Game extends GameCore implements MouseListener{
 				}
 			}
 			//Player dead overlay to restart game
-			if(playerDead) {
+			if(s.playerDead) {
 				g.setColor(Color.black);
 				g.setFont(g.getFont().deriveFont(Font.BOLD, 50));
 				int x = getXcenteredText("GAME OVER", g);
@@ -547,7 +1069,7 @@ public class Game extends GameCore implements MouseListener{
 			g.fillRect(0, 0, screenWidth, screenHeight);
 			g.setFont(g.getFont().deriveFont(Font.BOLD, 20));
 			g.setColor(Color.white);
-			String title = "Congrulations! Your score was: " + score / 100;
+			String title = "Congrulations! Your score was: " + s.score / 100;
 			int x = getXcenteredText(title, g);
 			int y = (int)(screenHeight/2.5);
 			g.drawString(title, x, y);
@@ -608,15 +1130,20 @@ public class Game extends GameCore implements MouseListener{
 	 * @param elapsed - The elapsed time between this call and the previous call of elapsed
 	 */
 	private void checkCoinCollision(Long elapsed) {
-		for (Sprite c : coins) {
-			c.update(elapsed);
-			if (boundingBoxCollision(c, player)) {
-				soundControl(new Sound("sounds/coin.wav"));
-				score += 500;
-				coins.remove(c);
-				checkLevelComplete();
-			}
+		coinStore.update(elapsed);
+		//Only the coins sharing a tile with the player are tested
+		coinHash.clear();
+		for (Sprite c : coins)
+			coinHash.add(c);
+		coinHash.query((int)player.getX(), (int)player.getY(), player.getWidth(), player.getHeight(), coinHit);
+		for (Sprite c : coinsHit) {
+			soundControl(new Sound("sounds/coin.wav"));
+			score += 500;
+			coins.remove(c);
+			removeCoin(c);
+			checkLevelComplete();
 		}
+		coinsHit.clear();
 	}
 	/**
 	 * dinoDeathAnim performs the animation for Dino's death and ends the game.
@@ -634,7 +1161,6 @@ public class Game extends GameCore implements MouseListener{
 		soundControl(new Sound("sounds/roar.wav"));
 		playerDead = true;
 		score = 0;
-		gameOver();
 	}
 	/**
 	 * enemyAttack performs the animation for enemy attacking player. 
@@ -654,25 +1180,6 @@ public class Game extends GameCore implements MouseListener{
 		enemy.playAnimation();
 		dinoDeathAnim();
 	}
-	/**
-	 * gameOver stops the movement of enemies and waits for user to click screen.
-	 * Once a user clicks the screen, the game is restarted.
-	 */
-	private void gameOver() {
-		addMouseListener(new MouseAdapter()
-        {
-            @Override
-            public void mouseClicked(MouseEvent e)
-            {	
-            	if(playerDead == true) {
-            		for(Sprite enemy : enemies) {
-            			enemy.stop();
-            		}
-            		initialiseGame();
-            	}
-            }
-        });
-	}
 	/**
 	 * Handles keyboard input of A and D keys so that characters movement and animation is updated.
 	 * This implementation makes it so user cannot press both inputs causing a convulsion effect on sprite. 
@@ -742,7 +1249,8 @@ public class Game extends GameCore implements MouseListener{
 	 * spawn in the asteroid.
 	 */
 	private void checkLevelComplete() {
-		if(coins.size() == 0) {
+		//Endless levels never run out of coins
+		if(coins.size() == 0 && !endless) {
 			levelComplete = true;
 			asteroid.show();
 			asteroid.setAnimationFrame(0);
@@ -757,11 +1265,7 @@ public class Game extends GameCore implements MouseListener{
 	 * @return boolean - true means overlap has occurred. 
 	 */
 	private boolean boundingBoxCollision(Sprite s1, Sprite s2) {
-
-		Rectangle sprite1 =  getSpriteBounds((int)s1.getX(), (int)s1.getY(), s1.getWidth(), s1.getHeight());
-		Rectangle sprite2 =  getSpriteBounds((int)s2.getX(), (int)s2.getY(), s2.getWidth(), s2.getHeight());
-		
-		return sprite2.intersects(sprite1);
+		return SpatialHash.overlaps(s1, s2);
 	}
 	
 	/**
@@ -770,22 +1274,27 @@ public class Game extends GameCore implements MouseListener{
 	 * @param enemy - A singular Sprite representing an enemy.  
 	 */
 	private void stalkPlayer(Sprite enemy) {
-		Timer timer = new Timer();
-		timer.schedule(new TimerTask() {
-		  @Override
+		scheduleEnemyTask(new EnemyTask(enemy) {
 		  public void run() {
-			  if(enemy.getAnimation() != enemyDeath) {
-				  if(enemy.getX() < player.getX()) {
-					  enemy.setVelocityX(enemyMovementSpeed);
-					  enemy.setScale(1f, 1f);
-				  }else {
-					  enemy.setVelocityX(-enemyMovementSpeed);
-					  enemy.setScale(-1f, 1f);
-				  }
-			  }
+			  chasePlayer(enemy);
 		  }
 		}, 0, 10000); //Every 10 seconds stalk player
 	}
+	/**
+	 * chasePlayer turns a living enemy towards the player and sets it walking.
+	 * @param enemy - A singular Sprite representing an enemy.  
+	 */
+	private void chasePlayer(Sprite enemy) {
+		if(enemy.getAnimationDefinition() != enemyDeath) {
+			if(enemy.getX() < player.getX()) {
+				enemy.setVelocityX(enemyMovementSpeed);
+				enemy.setScale(1f, 1f);
+			}else {
+				enemy.setVelocityX(-enemyMovementSpeed);
+				enemy.setScale(-1f, 1f);
+			}
+		}
+	}
 	/**
 	 * jumpyDinoKO is the animation of an enemy death when the player successfully jumps on its head.
 	 * Enemy's death animation and a sound is played, score is updated.
@@ -810,64 +1319,30 @@ public class Game extends GameCore implements MouseListener{
 	 * @param tmap - The tile map to check
 	 */
 	private void checkTileCollision(Sprite s, TileMap tmap) {
-		//Circular collision detection using bipolar coordinates 
-		float sx = s.getX() + -offsetX + s.getRadius();
-    	float sy = s.getY() + s.getRadius();  	
-    	int xtile, ytile;
-    	double x, y;
-    	//for 6 points of the 360* circle, check collision
-    	for(int angle = 0; angle < 6; angle++) {
-    		try {
-	    		x = sx + (s.getRadius() * Math.cos(Math.toRadians(angle * 60)));
-	    		y = sy + (s.getRadius() * Math.sin(Math.toRadians(angle * 60)));
-	    		// Find out how wide and how tall a tile is
-	        	xtile = (int)(x /  tmap.getTileWidth());
-	        	ytile = (int)(y / tmap.getTileHeight());
-	        	Tile t = tmap.getTile(xtile, ytile);
-	    		switch(t.getCharacter()) {
-		    		case '.':
-		    		case '2':
-		    		default:
-		    			continue;
-		    		case 'l':
-		    		case 'm':
-		    		case 'r':	
-		    			//If player is below island, bounce back.
-		    			if(t.getYC() < s.getY() + s.getHeight()/2) {
-		    				s.setVelocityY(0.2f);
-		    				return;
-		    			//else player stand on top.
-		    			}else {
-		    				s.setVelocityY(0f);
-		    				s.setY(s.getY());
-		    				return; 
-		    			}
-	    		}
-	    	//Stops weird error where program crashes when enemy collides with player (only occurs in first few tiles)
-	    	}catch(Exception e){
-	    		continue;
-	    	} 
-    	}
-	}
-	/**
-	 * Creates a new rectangle object.
-	 * @param x - Horizontal location on map 
-	 * @param y - Vertical Location on map 
-	 * @param width - of the new box
-	 * @param height - of the new box
-	 * 
-	 * @return new Rectangle
-	 */
-	private Rectangle getSpriteBounds(int x, int y, int width, int height) {
-		return (new Rectangle(x,y,width,height));
+		//Check the box around the sprite's collision circle, in map coordinates
+		float r = s.getRadius();
+		int left = (int)(s.getX() + -offsetX);
+		int centreY = (int)(s.getY() + r);
+		int width = (int)(r * 2) + 1;
+		int half = (int)(r * 0.866f);
+		//Standing on a platform takes priority over bumping into one
+		if (!tmap.findSolid(left, centreY, width, half + 1, tileHit)
+				&& !tmap.findSolid(left, centreY - half, width, half, tileHit))
+			return;
+		//If player is below island, bounce back, else stand on top
+		if (tmap.getTileYC(tileHit.x, tileHit.y) < s.getY() + s.getHeight()/2) {
+			s.setVelocityY(0.2f);
+		} else {
+			s.setVelocityY(0f);
+		}
 	}
 	/**
-	 * Override of the keyPressed event defined in GameCore to catch our own events
-	 * @param e The event that has been generated
+	 * Override of the keyDown event defined in GameCore to catch our own events
+	 * @param keyCode The code of the key that was pressed
 	 */
-	public void keyPressed(KeyEvent e) {
+	public void keyDown(int keyCode) {
 		if(!playerDead) {
-			switch (e.getKeyCode()) {
+			switch (keyCode) {
 			case KeyEvent.VK_A:
 			case KeyEvent.VK_LEFT:
 				keyRight = false;
@@ -893,10 +1368,9 @@ public class Game extends GameCore implements MouseListener{
 				return;
 			case KeyEvent.VK_3:
 				dinoDeathAnim();
-				gameOver();
 				return;
 			case KeyEvent.VK_4:
-				coins.clear();
+				clearCoins();
 				checkLevelComplete();
 				return;
 			case KeyEvent.VK_V:
@@ -907,14 +1381,15 @@ public class Game extends GameCore implements MouseListener{
 		}
 	}
 	/**
-	 * Override of the keyReleased event defined in GameCore to catch our own events
-	 * @param e The event that has been generated
+	 * Override of the keyUp event defined in GameCore to catch our own events
+	 * @param keyCode The code of the key that was released
 	 */
-	public void keyReleased(KeyEvent e) {
+	public void keyUp(int keyCode) {
 		if(!playerDead) {
-			switch (e.getKeyCode()) {
+			switch (keyCode) {
 			case KeyEvent.VK_ESCAPE:
-				System.exit(0);
+				stop();
+				break;
 			case KeyEvent.VK_A:
 			case KeyEvent.VK_LEFT:
 				keyLeft = false;
@@ -941,7 +1416,7 @@ public class Game extends GameCore implements MouseListener{
 		jumpingCount--;
 		player.setAnimation(jump);
 		player.setVelocityY(-0.4f);
-		TimerTask task = new TimerTask() {
+		schedule(new Runnable() {
 			public void run() {
 				//After 1.5seconds add a jump and change animation to idle is player isn't moving
 				//If player is moving the animation will be changed to run anyway.
@@ -952,10 +1427,7 @@ public class Game extends GameCore implements MouseListener{
 					}
 				}
 			}
-		};
-		Timer timer = new Timer("Timer");
-		long delay = 1500l;
-		timer.schedule(task, delay);
+		}, 1500l);
 	}
 	/**
 	 * handles user key press to jump. Double jumping is allowed. 
@@ -978,12 +1450,13 @@ public class Game extends GameCore implements MouseListener{
 		catch (Exception e){}
 	}
 	/**
-	 * Override of the mouseClicked event defined in GameCore to catch our own mouse events
-	 * @param e The MouseEvent that has been generated
+	 * Override of the mouseClick event defined in GameCore to catch our own mouse events
+	 * @param x The x position of the click
+	 * @param y The y position of the click
 	 */
-	public void mouseClicked(MouseEvent e) {
+	public void mouseClick(int x, int y) {
 		if(state == gameStage.INTRO) {
-			int mouseY = e.getY();
+			int mouseY = y;
 			//on the intro screen there is only two buttons so if user clicks closer
 			// to audio button then it toggles mute/play or if its closer to play button, the game starts.
 			if(mouseY > 150) {
@@ -997,8 +1470,15 @@ public class Game extends GameCore implements MouseListener{
 			//If game is currently playing and debug mode is active then send enemies towards player
 			if(debugMode) {
 				for(Sprite s : enemies) {
-					stalkPlayer(s);
+					chasePlayer(s);
+				}
+			}
+			//Once the player has died the game waits for a click to restart the level
+			if(playerDead) {
+				for(Sprite enemy : enemies) {
+					enemy.stop();
 				}
+				initialiseGame();
 			}
 			return;
 		} else {
@@ -1009,9 +1489,4 @@ public class Game extends GameCore implements MouseListener{
 			return;
 		}
 	}
-	//Currently unused
-	@Override public void mousePressed(MouseEvent e) {}
-	@Override public void mouseReleased(MouseEvent e) {}
-	@Override public void mouseEntered(MouseEvent e) {}
-	@Override public void mouseExited(MouseEvent e) {}
 }